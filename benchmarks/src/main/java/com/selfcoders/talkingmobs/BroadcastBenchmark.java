@@ -0,0 +1,92 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.World;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broadcasting a message of a mob to all online players within the max distance and delivering it
+ *
+ * The players are spread over a square of 256 x 256 blocks around the mobs and the max distance is 64 blocks, so some
+ * of the players are out of range. The spam timeout is disabled to measure the messages which are actually sent.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BroadcastBenchmark {
+    private static final int MOBS = 4096;
+
+    @Param({"10", "100", "1000"})
+    public int players;
+
+    private File dataFolder;
+    private Message message;
+    private MessageRequest[] requests;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataFolder = FakeServer.createDataFolder();
+
+        Random random = new Random(0);
+        FakeServer server = new FakeServer();
+        World world = server.addWorld("world");
+
+        for (int index = 0; index < players; index++) {
+            server.addPlayer(world, random.nextDouble() * 256 - 128, 64, random.nextDouble() * 256 - 128);
+        }
+
+        TalkingMobs plugin = server.createPlugin(dataFolder);
+        plugin.reloadConfig();
+        plugin.getConfig().set("maxDistance", 64);
+        plugin.getConfig().set("spam-timeout", 0);
+        plugin.getConfig().set("rate-limit.player.rate", 0);
+        plugin.getConfig().save(new File(dataFolder, "config.yml"));
+        plugin.reloadConfig();
+
+        message = plugin.getMessage();
+
+        for (Player player : server.getOnlinePlayers()) {
+            plugin.getPlayerTracker().add(player);
+        }
+
+        plugin.getAudience().refresh();
+
+        requests = new MessageRequest[MOBS];
+
+        for (int index = 0; index < MOBS; index++) {
+            requests[index] = new MessageRequest(server.spawnMob(EntityType.CHICKEN, world, random.nextDouble() * 64 - 32, 64, random.nextDouble() * 64 - 32), Message.EventType.SPAWNED, Message.EventType.SPAWNED, null);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FakeServer.deleteDataFolder(dataFolder);
+    }
+
+    @Benchmark
+    public void broadcast() {
+        message.process(requests[next++ & (MOBS - 1)]);
+        message.getPipeline().deliver();
+    }
+}
@@ -0,0 +1,145 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.World;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.EntityType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up the messages of a mob and event type and picking one of them
+ *
+ * Uses either the shipped messages.yml or a generated one defining the given number of messages for each event type
+ * of each mob.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CatalogBenchmark {
+    private static final int REQUESTS = 1024;
+
+    @Param({"shipped", "10", "100"})
+    public String messages;
+
+    private File dataFolder;
+    private Message message;
+    private MessageCatalog catalog;
+    private EntityType[] entityTypes;
+    private Message.EventType[] eventTypes;
+    private MessageRequest[] requests;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataFolder = FakeServer.createDataFolder();
+
+        YamlConfiguration messagesConfig;
+
+        if (messages.equals("shipped")) {
+            messagesConfig = YamlConfiguration.loadConfiguration(new InputStreamReader(getClass().getResourceAsStream("/messages.yml"), StandardCharsets.UTF_8));
+        } else {
+            messagesConfig = generateMessages(Integer.parseInt(messages));
+            messagesConfig.save(new File(dataFolder, "messages.yml"));
+        }
+
+        FakeServer server = new FakeServer();
+        World world = server.addWorld("world");
+        TalkingMobs plugin = server.createPlugin(dataFolder);
+        plugin.reloadConfig();
+
+        message = plugin.getMessage();
+        catalog = MessageCatalog.compile(messagesConfig, plugin.getConfig(), plugin.getLogger());
+
+        // Only use combinations having messages (missing messages are logged)
+        List<EntityType> entityTypeList = new ArrayList<>();
+        List<Message.EventType> eventTypeList = new ArrayList<>();
+
+        for (EntityType entityType : EntityType.values()) {
+            if (!entityType.isAlive() || entityType == EntityType.PLAYER) {
+                continue;
+            }
+
+            for (Message.EventType eventType : Message.EventType.values()) {
+                if (catalog.get(entityType, eventType) != null) {
+                    entityTypeList.add(entityType);
+                    eventTypeList.add(eventType);
+                }
+            }
+        }
+
+        Random random = new Random(0);
+
+        entityTypes = new EntityType[REQUESTS];
+        eventTypes = new Message.EventType[REQUESTS];
+        requests = new MessageRequest[REQUESTS];
+
+        for (int index = 0; index < REQUESTS; index++) {
+            int combination = random.nextInt(entityTypeList.size());
+
+            entityTypes[index] = entityTypeList.get(combination);
+            eventTypes[index] = eventTypeList.get(combination);
+            requests[index] = new MessageRequest(server.spawnMob(entityTypes[index], world, 0, 64, 0), eventTypes[index], eventTypes[index], null);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FakeServer.deleteDataFolder(dataFolder);
+    }
+
+    private static YamlConfiguration generateMessages(int count) {
+        YamlConfiguration config = new YamlConfiguration();
+
+        for (EntityType entityType : EntityType.values()) {
+            if (!entityType.isAlive() || entityType == EntityType.PLAYER) {
+                continue;
+            }
+
+            for (Message.EventType eventType : Message.EventType.values()) {
+                List<String> lines = new ArrayList<>();
+
+                for (int index = 0; index < count; index++) {
+                    lines.add("&7Message " + index + " of the " + eventType.getType() + " event, %player%!");
+                }
+
+                config.set(MessageCatalog.getMobName(entityType) + "." + eventType.getType(), lines);
+            }
+        }
+
+        return config;
+    }
+
+    @Benchmark
+    public MessageCatalog.Entry getMessages() {
+        int index = next++ & (REQUESTS - 1);
+
+        return catalog.get(entityTypes[index], eventTypes[index]);
+    }
+
+    @Benchmark
+    public MessageTemplate.PreparedMessage getMessage() {
+        return message.getMessage(requests[next++ & (REQUESTS - 1)]);
+    }
+}
@@ -0,0 +1,293 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.World;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stress test calling the public methods of {@link Message} and the shared tables from many threads at once
+ *
+ * The first phase lets all threads race for the same spam timeout keys of a {@link StripedCooldownTable}: for each key,
+ * exactly one thread must see it as not spamming. The second phase enables the plugin on a {@link FakeServer} and lets
+ * the threads send messages, toggle the messages of their own players, forget mobs and reload messages.yml while the
+ * main thread keeps running the scheduled tasks. Afterwards, the toggles must match the last state set by each thread
+ * and no thread or task may have thrown an exception. The process exits with status 1 if any check failed.
+ *
+ * Usage: java -cp target/benchmarks.jar com.selfcoders.talkingmobs.ConcurrencyStressTest [threads] [seconds]
+ */
+public class ConcurrencyStressTest {
+    private static final EntityType[] MOB_TYPES = {EntityType.CHICKEN, EntityType.COW, EntityType.PIG, EntityType.SHEEP, EntityType.ZOMBIE};
+    private static final Message.EventType[] TOGGLEABLE = {Message.EventType.ATTACKED, Message.EventType.INTERACTED, Message.EventType.LOOKING, Message.EventType.SPAWNED};
+    private static final int KEYS = 100_000;
+    private static final int PLAYERS_PER_THREAD = 4;
+    private static final int MOBS = 2000;
+
+    private final int threadCount;
+    private final int seconds;
+    private final FakeServer server = new FakeServer();
+    private final List<Player> players = new ArrayList<>();
+    private final List<LivingEntity> mobs = new ArrayList<>();
+    private final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+    private final LongAdder operations = new LongAdder();
+    private Message message;
+
+    private ConcurrencyStressTest(int threadCount, int seconds) {
+        this.threadCount = threadCount;
+        this.seconds = seconds;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        ConcurrencyStressTest test = new ConcurrencyStressTest(threads, seconds);
+
+        test.testCooldownTable();
+        test.testMessage();
+
+        if (!test.failures.isEmpty()) {
+            System.out.printf(Locale.ROOT, "%nFAILED (%d failures):%n", test.failures.size());
+            test.failures.stream().limit(20).forEach(failure -> System.out.println("  " + failure));
+            System.exit(1);
+        }
+
+        System.out.println();
+        System.out.println("PASSED");
+    }
+
+    /**
+     * All threads touch all keys in a different order, exactly one touch per key may find it not spamming
+     */
+    private void testCooldownTable() throws InterruptedException {
+        StripedCooldownTable table = new StripedCooldownTable();
+        AtomicIntegerArray winners = new AtomicIntegerArray(KEYS);
+        long now = System.currentTimeMillis();
+        long timeout = TimeUnit.MINUTES.toMillis(1);
+
+        long duration = runThreads(thread -> {
+            int offset = thread * (KEYS / threadCount);
+
+            for (int index = 0; index < KEYS; index++) {
+                int key = (index + offset) % KEYS;
+
+                // The player IDs do not overlap with the mob IDs, so removing mobs only removes their own keys
+                if (!table.touch(CooldownTable.key(key, KEYS + key % 1000, Message.EventType.ATTACKED), now, timeout)) {
+                    winners.incrementAndGet(key);
+                }
+            }
+        });
+
+        for (int key = 0; key < KEYS; key++) {
+            if (winners.get(key) != 1) {
+                failures.add(String.format(Locale.ROOT, "Cooldown key %d has not been touched first by exactly one thread (%d)", key, winners.get(key)));
+            }
+        }
+
+        if (table.size() != KEYS) {
+            failures.add(String.format(Locale.ROOT, "Cooldown table contains %d instead of %d keys", table.size(), KEYS));
+        }
+
+        int[] entityIds = new int[KEYS / 2];
+
+        for (int index = 0; index < entityIds.length; index++) {
+            entityIds[index] = index;
+        }
+
+        table.remove(entityIds);
+
+        if (table.size() != KEYS - entityIds.length) {
+            failures.add(String.format(Locale.ROOT, "Cooldown table contains %d instead of %d keys after removing entities", table.size(), KEYS - entityIds.length));
+        }
+
+        System.out.printf(Locale.ROOT, "Cooldown table: %d threads touched %d keys each in %d ms%n", threadCount, KEYS, TimeUnit.NANOSECONDS.toMillis(duration));
+    }
+
+    /**
+     * Call the public methods of the plugin from all threads while the main thread runs the scheduled tasks
+     */
+    private void testMessage() throws IOException, InterruptedException {
+        File dataFolder = FakeServer.createDataFolder();
+
+        try {
+            server.install();
+            World world = server.addWorld("world");
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            for (int index = 0; index < threadCount * PLAYERS_PER_THREAD; index++) {
+                players.add(server.addPlayer(world, random.nextDouble(-256, 256), 64, random.nextDouble(-256, 256)));
+            }
+
+            for (int index = 0; index < MOBS; index++) {
+                mobs.add(server.spawnMob(MOB_TYPES[random.nextInt(MOB_TYPES.length)], world, random.nextDouble(-256, 256), 64, random.nextDouble(-256, 256)));
+            }
+
+            TalkingMobs plugin = server.createPlugin(dataFolder);
+            server.enablePlugin(plugin);
+            message = plugin.getMessage();
+
+            boolean[][] expected = new boolean[players.size()][TOGGLEABLE.length];
+
+            for (boolean[] states : expected) {
+                Arrays.fill(states, true);
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            CountDownLatch done = new CountDownLatch(threadCount);
+            List<Thread> threads = new ArrayList<>();
+
+            for (int thread = 0; thread < threadCount; thread++) {
+                threads.add(start(thread, index -> {
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            callRandomMethod(index * PLAYERS_PER_THREAD, expected);
+                            operations.increment();
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }));
+            }
+
+            // Run the scheduled tasks (including the messages handed over to the main thread) like the server does
+            while (!done.await(50, TimeUnit.MILLISECONDS)) {
+                tick();
+            }
+
+            join(threads);
+
+            // Let the workers finish and deliver the remaining messages
+            Thread.sleep(500);
+            tick();
+            tick();
+
+            for (int index = 0; index < players.size(); index++) {
+                for (int type = 0; type < TOGGLEABLE.length; type++) {
+                    if (message.isEnabled(players.get(index), TOGGLEABLE[type]) != expected[index][type]) {
+                        failures.add(String.format(Locale.ROOT, "Player %d: %s is %b instead of %b", index, TOGGLEABLE[type].getType(), !expected[index][type], expected[index][type]));
+                    }
+                }
+            }
+
+            Metrics metrics = message.getMetrics();
+            long sent = 0;
+
+            for (Message.EventType eventType : Message.EventType.values()) {
+                sent += metrics.getSent(eventType);
+            }
+
+            System.out.printf(Locale.ROOT, "Message: %d threads called %d methods in %d seconds, %d messages sent, %d spam timeouts left%n", threadCount, operations.sum(), seconds, sent, message.getSpamTimeoutCount());
+
+            server.disablePlugin(plugin);
+        } finally {
+            FakeServer.deleteDataFolder(dataFolder);
+        }
+    }
+
+    private void callRandomMethod(int firstPlayer, boolean[][] expected) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LivingEntity mob = mobs.get(random.nextInt(mobs.size()));
+        int choice = random.nextInt(1000);
+
+        if (choice < 500) {
+            message.sendMessage(mob, players.get(random.nextInt(players.size())), Message.EventType.ATTACKED);
+        } else if (choice < 600) {
+            message.sendMessage(mob, Message.EventType.SPAWNED);
+        } else if (choice < 900) {
+            // Each thread only toggles its own players, so the last state it set must be the final state
+            int player = firstPlayer + random.nextInt(PLAYERS_PER_THREAD);
+            int type = random.nextInt(TOGGLEABLE.length);
+            boolean state = random.nextBoolean();
+
+            message.setEnabled(players.get(player), TOGGLEABLE[type], state);
+            expected[player][type] = state;
+
+            if (message.isEnabled(players.get(player), TOGGLEABLE[type]) != state) {
+                failures.add(String.format(Locale.ROOT, "Player %d: %s has not been set to %b", player, TOGGLEABLE[type].getType(), state));
+            }
+        } else if (choice < 990) {
+            message.forget(mob);
+        } else if (choice < 999) {
+            message.getSpamTimeoutCount();
+        } else {
+            try {
+                message.reloadMessages();
+            } catch (Exception exception) {
+                failures.add("Could not reload messages.yml: " + exception);
+            }
+        }
+    }
+
+    private void tick() {
+        try {
+            server.tick();
+        } catch (RuntimeException exception) {
+            failures.add("Scheduled task failed: " + exception);
+        }
+    }
+
+    /**
+     * The task of a thread
+     */
+    @FunctionalInterface
+    private interface ThreadTask {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Run the task on all threads at once and wait for them to finish
+     *
+     * @return The duration in nanoseconds
+     */
+    private long runThreads(ThreadTask task) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int thread = 0; thread < threadCount; thread++) {
+            threads.add(start(thread, index -> {
+                ready.await();
+                task.run(index);
+            }));
+        }
+
+        long start = System.nanoTime();
+        ready.countDown();
+        join(threads);
+
+        return System.nanoTime() - start;
+    }
+
+    private Thread start(int index, ThreadTask task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run(index);
+            } catch (Throwable exception) {
+                failures.add("Thread " + index + " failed: " + exception);
+                exception.printStackTrace();
+            }
+        }, "Stress " + index);
+
+        thread.start();
+
+        return thread;
+    }
+
+    private static void join(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
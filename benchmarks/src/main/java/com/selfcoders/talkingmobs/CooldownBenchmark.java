@@ -0,0 +1,123 @@
+package com.selfcoders.talkingmobs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking the spam timeouts with millions of entries in the cooldown table
+ *
+ * The contended benchmarks share one table between multiple threads, comparing a single lock with the striped table
+ * used by {@link Message}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Thread)
+public class CooldownBenchmark {
+    private static final long SPAM_TIMEOUT = 3000;
+
+    @Param({"1000000", "4000000"})
+    public int entries;
+
+    private CooldownTable table;
+    private long[] keys;
+    private int[] order;
+    private int next;
+
+    /**
+     * Tables shared by all threads of the contended benchmarks (filled with the same keys)
+     */
+    @State(Scope.Benchmark)
+    public static class Shared {
+        private CooldownTable table;
+        private StripedCooldownTable stripedTable;
+
+        @Setup
+        public void setUp(CooldownBenchmark benchmark) {
+            long now = System.currentTimeMillis();
+
+            table = new CooldownTable();
+            stripedTable = new StripedCooldownTable();
+
+            for (long key : benchmark.keys) {
+                table.touch(key, now, SPAM_TIMEOUT);
+                stripedTable.touch(key, now, SPAM_TIMEOUT);
+            }
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        Message.EventType[] eventTypes = Message.EventType.values();
+        long now = System.currentTimeMillis();
+
+        table = new CooldownTable();
+        keys = new long[entries];
+
+        for (int index = 0; index < entries; index++) {
+            keys[index] = CooldownTable.key(random.nextInt(Integer.MAX_VALUE), random.nextInt(1000), eventTypes[random.nextInt(eventTypes.length)]);
+            table.touch(keys[index], now, SPAM_TIMEOUT);
+        }
+
+        order = new int[1 << 20];
+
+        for (int index = 0; index < order.length; index++) {
+            order[index] = random.nextInt(entries);
+        }
+
+        // The keys are the same for all threads, but each thread starts at another position
+        next = ThreadLocalRandom.current().nextInt(order.length);
+    }
+
+    /**
+     * Random existing keys at the current time (entries not touched within the spam timeout are evicted and inserted
+     * again)
+     */
+    @Benchmark
+    public boolean isSpamming() {
+        long key = keys[order[next++ & (order.length - 1)]];
+
+        synchronized (table) {
+            return table.touch(key, System.currentTimeMillis(), SPAM_TIMEOUT);
+        }
+    }
+
+    /**
+     * Like {@link #isSpamming()} with all threads using a single table behind one lock
+     */
+    @Benchmark
+    @Threads(8)
+    public boolean isSpammingLocked(Shared shared) {
+        long key = keys[order[next++ & (order.length - 1)]];
+
+        synchronized (shared.table) {
+            return shared.table.touch(key, System.currentTimeMillis(), SPAM_TIMEOUT);
+        }
+    }
+
+    /**
+     * Like Message.isSpamming: all threads using the striped table
+     */
+    @Benchmark
+    @Threads(8)
+    public boolean isSpammingStriped(Shared shared) {
+        return shared.stripedTable.touch(keys[order[next++ & (order.length - 1)]], System.currentTimeMillis(), SPAM_TIMEOUT);
+    }
+}
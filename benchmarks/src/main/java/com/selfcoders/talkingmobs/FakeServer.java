@@ -0,0 +1,659 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * In-process stand-in for a Bukkit server used to run the plugin without a Minecraft server
+ *
+ * The server, worlds, players and mobs are {@link Proxy} instances backed by a small amount of state. Methods which are
+ * not needed by the plugin return the default value of their return type (0, false, null or an empty collection).
+ * Scheduled tasks only run when calling {@link #tick()} and events are dispatched to the registered listeners by
+ * {@link PluginManager#callEvent(Event)} on the calling thread. The thread creating the server is its main thread.
+ */
+class FakeServer {
+    /**
+     * Returned by a {@link Behavior} to fall back to the default value of the return type
+     */
+    static final Object UNHANDLED = new Object();
+
+    private final Logger logger = Logger.getLogger("FakeServer");
+    private final List<Player> onlinePlayers = new CopyOnWriteArrayList<>();
+    private final List<World> worlds = new CopyOnWriteArrayList<>();
+    private final List<LivingEntity> mobs = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextEntityId = new AtomicInteger(1);
+    private final AtomicInteger nextTaskId = new AtomicInteger(1);
+    private final List<ScheduledTask> tasks = new ArrayList<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<Class<?>, List<EventHandlerMethod>> eventHandlers = new ConcurrentHashMap<>();
+    private final BukkitScheduler scheduler = proxy(BukkitScheduler.class, this::schedule);
+    private final PluginManager pluginManager = proxy(PluginManager.class, this::managePlugins);
+    private final Server server;
+    private final Thread primaryThread = Thread.currentThread();
+    private long currentTick;
+
+    /**
+     * Implementation of the methods of a proxy
+     */
+    @FunctionalInterface
+    interface Behavior {
+        /**
+         * @param method The called method
+         * @param args   The arguments (null if the method does not have any)
+         * @return The return value or {@link #UNHANDLED}
+         */
+        Object invoke(Method method, Object[] args) throws Throwable;
+    }
+
+    /**
+     * Invocation handler implementing the methods of {@link Object} and delegating everything else to a behavior
+     */
+    private static class Handler implements InvocationHandler {
+        private final Class<?> type;
+        private final Behavior behavior;
+
+        private Handler(Class<?> type, Behavior behavior) {
+            this.type = type;
+            this.behavior = behavior;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                }
+            }
+
+            Object result = behavior.invoke(method, args);
+
+            return result == UNHANDLED ? defaultValue(method.getReturnType()) : result;
+        }
+    }
+
+    /**
+     * A task registered at the scheduler
+     */
+    private static class ScheduledTask {
+        private final int taskId;
+        private final Runnable runnable;
+        private final long period;
+        private long nextTick;
+        private volatile boolean cancelled;
+
+        private ScheduledTask(int taskId, Runnable runnable, long nextTick, long period) {
+            this.taskId = taskId;
+            this.runnable = runnable;
+            this.nextTick = nextTick;
+            this.period = period;
+        }
+    }
+
+    /**
+     * A method annotated with {@link EventHandler} of a registered listener
+     */
+    private static class EventHandlerMethod {
+        private final Listener listener;
+        private final Method method;
+
+        private EventHandlerMethod(Listener listener, Method method) {
+            this.listener = listener;
+            this.method = method;
+        }
+    }
+
+    /**
+     * State of a fake player or mob
+     */
+    static class FakeEntity implements Behavior {
+        private final FakeServer server;
+        private final int entityId;
+        private final UUID uniqueId = UUID.randomUUID();
+        private final String name;
+        private final EntityType type;
+        private final Location location;
+        private final LongAdder receivedMessages = new LongAdder();
+        private volatile Player killer;
+        private volatile boolean dead;
+
+        private FakeEntity(FakeServer server, int entityId, String name, EntityType type, Location location) {
+            this.server = server;
+            this.entityId = entityId;
+            this.name = name;
+            this.type = type;
+            this.location = location;
+        }
+
+        @Override
+        public Object invoke(Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getEntityId":
+                    return entityId;
+                case "getUniqueId":
+                    return uniqueId;
+                case "getName":
+                case "getDisplayName":
+                    return name;
+                case "getType":
+                    return type;
+                case "getWorld":
+                    return location.getWorld();
+                case "getLocation":
+                    if (args == null) {
+                        return location.clone();
+                    }
+
+                    Location target = (Location) args[0];
+                    target.setWorld(location.getWorld());
+                    target.setX(location.getX());
+                    target.setY(location.getY());
+                    target.setZ(location.getZ());
+                    target.setYaw(location.getYaw());
+                    target.setPitch(location.getPitch());
+                    return target;
+                case "getEyeLocation":
+                    return location.clone().add(0, getEyeHeight(), 0);
+                case "getEyeHeight":
+                    return getEyeHeight();
+                case "getNearbyEntities":
+                    return server.getNearbyMobs(location, (double) args[0], (double) args[1], (double) args[2]);
+                case "isOnline":
+                case "hasPermission":
+                case "hasLineOfSight":
+                    return true;
+                case "isValid":
+                    return !dead;
+                case "isDead":
+                    return dead;
+                case "sendMessage":
+                    receivedMessages.increment();
+                    return null;
+                case "getKiller":
+                    return killer;
+                case "getLocale":
+                    return "en_us";
+            }
+
+            return UNHANDLED;
+        }
+
+        /**
+         * Move the entity (the world stays the same)
+         */
+        void moveTo(double x, double y, double z) {
+            location.setX(x);
+            location.setY(y);
+            location.setZ(z);
+        }
+
+        /**
+         * Rotate the head of the entity
+         */
+        void rotate(float yaw, float pitch) {
+            location.setYaw(yaw);
+            location.setPitch(pitch);
+        }
+
+        Location getLocation() {
+            return location;
+        }
+
+        double getEyeHeight() {
+            return type == EntityType.PLAYER ? 1.62 : 0.5;
+        }
+
+        void setKiller(Player killer) {
+            this.killer = killer;
+        }
+
+        boolean isDead() {
+            return dead;
+        }
+
+        /**
+         * @return The number of messages sent to this entity
+         */
+        long getReceivedMessages() {
+            return receivedMessages.sum();
+        }
+    }
+
+    FakeServer() {
+        // Only show warnings and errors of the plugin (e.g. not "No messages for event" on each event)
+        ConsoleHandler handler = new ConsoleHandler();
+        handler.setLevel(Level.WARNING);
+        logger.addHandler(handler);
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.WARNING);
+
+        server = proxy(Server.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getLogger":
+                    return logger;
+                case "getOnlinePlayers":
+                    return onlinePlayers;
+                case "getWorlds":
+                    return worlds;
+                case "getScheduler":
+                    return scheduler;
+                case "getPluginManager":
+                    return pluginManager;
+                case "getName":
+                    return "FakeServer";
+                case "isPrimaryThread":
+                    return Thread.currentThread() == primaryThread;
+                case "getVersion":
+                case "getBukkitVersion":
+                    return "1.12.2-R0.1-SNAPSHOT";
+            }
+
+            return UNHANDLED;
+        });
+    }
+
+    /**
+     * Set this server as the server returned by {@link Bukkit#getServer()} (required by {@link org.bukkit.scheduler.BukkitRunnable})
+     *
+     * The server can only be set once per JVM, so this does nothing if another server has already been set.
+     */
+    void install() {
+        if (Bukkit.getServer() == null) {
+            Bukkit.setServer(server);
+        }
+    }
+
+    /**
+     * Run all scheduled tasks which are due in the next tick (on the calling thread)
+     */
+    void tick() {
+        List<ScheduledTask> dueTasks = new ArrayList<>();
+
+        synchronized (tasks) {
+            currentTick++;
+
+            Iterator<ScheduledTask> iterator = tasks.iterator();
+
+            while (iterator.hasNext()) {
+                ScheduledTask task = iterator.next();
+
+                if (task.cancelled) {
+                    iterator.remove();
+                } else if (task.nextTick <= currentTick) {
+                    dueTasks.add(task);
+
+                    if (task.period > 0) {
+                        task.nextTick = currentTick + task.period;
+                    } else {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+
+        for (ScheduledTask task : dueTasks) {
+            if (!task.cancelled) {
+                task.runnable.run();
+            }
+        }
+    }
+
+    /**
+     * Enable the plugin like the plugin loader of the server does (calls onEnable)
+     */
+    void enablePlugin(JavaPlugin plugin) {
+        setEnabled(plugin, true);
+    }
+
+    /**
+     * Disable the plugin like the plugin loader of the server does (calls onDisable)
+     */
+    void disablePlugin(JavaPlugin plugin) {
+        setEnabled(plugin, false);
+
+        synchronized (tasks) {
+            tasks.clear();
+        }
+    }
+
+    private static void setEnabled(JavaPlugin plugin, boolean enabled) {
+        try {
+            Method method = JavaPlugin.class.getDeclaredMethod("setEnabled", boolean.class);
+            method.setAccessible(true);
+            method.invoke(plugin, enabled);
+        } catch (InvocationTargetException exception) {
+            throw new IllegalStateException("Could not " + (enabled ? "enable" : "disable") + " " + plugin.getName(), exception.getCause());
+        } catch (ReflectiveOperationException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    private Object schedule(Method method, Object[] args) {
+        long delay;
+        long period;
+
+        switch (method.getName()) {
+            case "runTask":
+            case "runTaskAsynchronously":
+                delay = 0;
+                period = 0;
+                break;
+            case "runTaskLater":
+            case "runTaskLaterAsynchronously":
+                delay = (long) args[2];
+                period = 0;
+                break;
+            case "runTaskTimer":
+            case "runTaskTimerAsynchronously":
+                delay = (long) args[2];
+                period = Math.max(1, (long) args[3]);
+                break;
+            case "cancelTask":
+                synchronized (tasks) {
+                    for (ScheduledTask task : tasks) {
+                        if (task.taskId == (int) args[0]) {
+                            task.cancelled = true;
+                        }
+                    }
+                }
+                return null;
+            case "cancelTasks":
+                synchronized (tasks) {
+                    for (ScheduledTask task : tasks) {
+                        task.cancelled = true;
+                    }
+                }
+                return null;
+            default:
+                return UNHANDLED;
+        }
+
+        ScheduledTask task;
+
+        synchronized (tasks) {
+            task = new ScheduledTask(nextTaskId.getAndIncrement(), (Runnable) args[1], currentTick + Math.max(1, delay), period);
+            tasks.add(task);
+        }
+
+        return proxy(BukkitTask.class, (taskMethod, taskArgs) -> {
+            switch (taskMethod.getName()) {
+                case "getTaskId":
+                    return task.taskId;
+                case "cancel":
+                    task.cancelled = true;
+                    return null;
+                case "isCancelled":
+                    return task.cancelled;
+                case "isSync":
+                    return true;
+            }
+
+            return UNHANDLED;
+        });
+    }
+
+    private Object managePlugins(Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "registerEvents":
+                listeners.add((Listener) args[0]);
+                eventHandlers.clear();
+                return null;
+            case "callEvent":
+                callEvent((Event) args[0]);
+                return null;
+        }
+
+        return UNHANDLED;
+    }
+
+    private void callEvent(Event event) throws Throwable {
+        List<EventHandlerMethod> handlers = eventHandlers.computeIfAbsent(event.getClass(), eventClass -> {
+            List<EventHandlerMethod> methods = new ArrayList<>();
+
+            for (Listener listener : listeners) {
+                for (Method method : listener.getClass().getMethods()) {
+                    if (method.isAnnotationPresent(EventHandler.class) && method.getParameterCount() == 1 && method.getParameterTypes()[0].isAssignableFrom(eventClass)) {
+                        methods.add(new EventHandlerMethod(listener, method));
+                    }
+                }
+            }
+
+            return methods;
+        });
+
+        for (EventHandlerMethod handler : handlers) {
+            try {
+                handler.method.invoke(handler.listener, event);
+            } catch (InvocationTargetException exception) {
+                throw exception.getCause();
+            }
+        }
+    }
+
+    /**
+     * Create a proxy instance of the interface
+     *
+     * @param type     The interface
+     * @param behavior The implementation of the methods
+     * @return The proxy instance
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(Class<T> type, Behavior behavior) {
+        return (T) Proxy.newProxyInstance(FakeServer.class.getClassLoader(), new Class<?>[]{type}, new Handler(type, behavior));
+    }
+
+    /**
+     * Get the state of a player or mob created by this server
+     *
+     * @param entity The player or mob
+     * @return The state
+     */
+    static FakeEntity getState(Object entity) {
+        return (FakeEntity) ((Handler) Proxy.getInvocationHandler(entity)).behavior;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0D;
+        } else if (type == float.class) {
+            return 0F;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == char.class) {
+            return (char) 0;
+        } else if (type == List.class || type == Collection.class) {
+            return Collections.emptyList();
+        } else if (type == Set.class) {
+            return Collections.emptySet();
+        }
+
+        return null;
+    }
+
+    Server getServer() {
+        return server;
+    }
+
+    Logger getLogger() {
+        return logger;
+    }
+
+    PluginManager getPluginManager() {
+        return pluginManager;
+    }
+
+    /**
+     * @return The listeners registered by the plugin
+     */
+    List<Listener> getListeners() {
+        return listeners;
+    }
+
+    /**
+     * @return The players which joined and did not quit yet
+     */
+    List<Player> getOnlinePlayers() {
+        return onlinePlayers;
+    }
+
+    World addWorld(String name) {
+        UUID uniqueId = UUID.randomUUID();
+
+        World world = proxy(World.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getUID":
+                    return uniqueId;
+                case "getName":
+                    return name;
+            }
+
+            return UNHANDLED;
+        });
+
+        worlds.add(world);
+
+        return world;
+    }
+
+    /**
+     * Create a player and add it to the online players
+     */
+    Player addPlayer(World world, double x, double y, double z) {
+        int entityId = nextEntityId.getAndIncrement();
+        Player player = proxy(Player.class, new FakeEntity(this, entityId, "Player" + entityId, EntityType.PLAYER, new Location(world, x, y, z)));
+
+        onlinePlayers.add(player);
+
+        return player;
+    }
+
+    /**
+     * Remove the player from the online players
+     */
+    void removePlayer(Player player) {
+        onlinePlayers.remove(player);
+    }
+
+    /**
+     * Create a mob and add it to the mobs returned by getNearbyEntities() of the players
+     */
+    LivingEntity spawnMob(EntityType type, World world, double x, double y, double z) {
+        int entityId = nextEntityId.getAndIncrement();
+        LivingEntity mob = proxy(LivingEntity.class, new FakeEntity(this, entityId, type.name(), type, new Location(world, x, y, z)));
+
+        mobs.add(mob);
+
+        return mob;
+    }
+
+    /**
+     * Mark the mob as dead and remove it
+     */
+    void killMob(LivingEntity mob) {
+        getState(mob).dead = true;
+        mobs.remove(mob);
+    }
+
+    /**
+     * @return The mobs which have been spawned and not killed yet
+     */
+    List<LivingEntity> getMobs() {
+        return mobs;
+    }
+
+    private List<Entity> getNearbyMobs(Location center, double x, double y, double z) {
+        List<Entity> nearby = new ArrayList<>();
+
+        for (LivingEntity mob : mobs) {
+            Location location = getState(mob).location;
+
+            if (location.getWorld() == center.getWorld() && Math.abs(location.getX() - center.getX()) <= x && Math.abs(location.getY() - center.getY()) <= y && Math.abs(location.getZ() - center.getZ()) <= z) {
+                nearby.add(mob);
+            }
+        }
+
+        return nearby;
+    }
+
+    /**
+     * Create an instance of the plugin (which is not enabled)
+     *
+     * @param dataFolder The data folder of the plugin (config files are created from the defaults if missing)
+     * @return The plugin
+     */
+    @SuppressWarnings("deprecation")
+    TalkingMobs createPlugin(File dataFolder) {
+        PluginDescriptionFile description = new PluginDescriptionFile("TalkingMobs", "benchmark", TalkingMobs.class.getName());
+
+        return new TalkingMobs(new JavaPluginLoader(server), description, dataFolder, new File(dataFolder, "TalkingMobs.jar"));
+    }
+
+    static File createDataFolder() throws IOException {
+        return Files.createTempDirectory("talkingmobs").toFile();
+    }
+
+    static void deleteDataFolder(File dataFolder) throws IOException {
+        List<Path> paths = new ArrayList<>();
+
+        try (Stream<Path> stream = Files.walk(dataFolder.toPath())) {
+            stream.sorted(Comparator.reverseOrder()).forEach(paths::add);
+        }
+
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.selfcoders.talkingmobs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the message templates (including the translation of color codes) and replacing the placeholders
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FormattingBenchmark {
+    private static final String FORMAT = "[&a%mobname%&r] %message%";
+    private static final String MESSAGE = "&cStop hitting me, %player%! I am just a poor %mobname%.";
+
+    private MessageTemplate format;
+    private MessageTemplate message;
+    private MessageTemplate.PreparedMessage preparedMessage;
+
+    @Setup
+    public void setUp() {
+        format = MessageTemplate.parse(FORMAT);
+        message = MessageTemplate.parse(MESSAGE);
+        preparedMessage = format.prepare(message, "zombie", "attacked", PlaceholderValues.NONE);
+    }
+
+    @Benchmark
+    public MessageTemplate parse() {
+        return MessageTemplate.parse(MESSAGE);
+    }
+
+    @Benchmark
+    public MessageTemplate.PreparedMessage prepare() {
+        return format.prepare(message, "zombie", "attacked", PlaceholderValues.NONE);
+    }
+
+    @Benchmark
+    public String format() {
+        return preparedMessage.format("Programie");
+    }
+
+    @Benchmark
+    public String prepareAndFormat() {
+        return format.prepare(message, "zombie", "attacked", PlaceholderValues.NONE).format("Programie");
+    }
+}
@@ -0,0 +1,422 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.entity.CreatureSpawnEvent;
+import org.bukkit.event.entity.EntityDamageByEntityEvent;
+import org.bukkit.event.entity.EntityDamageEvent;
+import org.bukkit.event.entity.EntityDeathEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Headless load simulation replaying a synthetic event stream through the plugin
+ *
+ * The plugin is enabled on a {@link FakeServer} with the given number of players and mobs spread over a square area.
+ * Each tick, player moves, attacks, spawns and deaths are fired at the configured rates (per second for the whole
+ * server, except for moves which are per player) through the registered listeners, followed by the scheduled tasks of
+ * the plugin (looking detection, position updates and message delivery). At the end, the latency percentiles per event,
+ * the messages delivered per player, the peak heap usage and the growth of the spam timeout table are reported.
+ *
+ * Usage: java -cp target/benchmarks.jar com.selfcoders.talkingmobs.LoadSimulator [--option=value ...]
+ */
+public class LoadSimulator {
+    private static final EntityType[] MOB_TYPES = {EntityType.CHICKEN, EntityType.COW, EntityType.PIG, EntityType.SHEEP, EntityType.ZOMBIE, EntityType.SKELETON, EntityType.CREEPER, EntityType.SPIDER, EntityType.WOLF};
+
+    private final Options options;
+    private final Random random;
+    private final FakeServer server = new FakeServer();
+    private final Map<String, Metrics.Histogram> latencies = new HashMap<>();
+    private final Metrics.Histogram tickTimes = new Metrics.Histogram();
+    private final List<Player> players = new ArrayList<>();
+    private final List<Integer> cooldownSizes = new ArrayList<>();
+    private World world;
+    private Message message;
+    private long peakHeap;
+
+    /**
+     * The options of the simulation (set using --name=value)
+     */
+    private static class Options {
+        private int players = 50;
+        private int mobs = 2000;
+        private int seconds = 60;
+        private double area = 512;
+        private double moves = 4;
+        private double attacks = 20;
+        private double spawns = 50;
+        private double deaths = 50;
+        private double killedByPlayer = 0.5;
+        private CreatureSpawnEvent.SpawnReason[] spawnReasons = {CreatureSpawnEvent.SpawnReason.NATURAL, CreatureSpawnEvent.SpawnReason.SPAWNER};
+        private boolean realtime = true;
+        private long seed = 0;
+        private File config;
+        private File messages;
+
+        private static Options parse(String[] args) {
+            Options options = new Options();
+
+            for (String arg : args) {
+                String[] parts = arg.replaceFirst("^--", "").split("=", 2);
+
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Invalid argument: " + arg);
+                }
+
+                String value = parts[1];
+
+                switch (parts[0]) {
+                    case "players":
+                        options.players = Integer.parseInt(value);
+                        break;
+                    case "mobs":
+                        options.mobs = Integer.parseInt(value);
+                        break;
+                    case "seconds":
+                        options.seconds = Integer.parseInt(value);
+                        break;
+                    case "area":
+                        options.area = Double.parseDouble(value);
+                        break;
+                    case "moves":
+                        options.moves = Double.parseDouble(value);
+                        break;
+                    case "attacks":
+                        options.attacks = Double.parseDouble(value);
+                        break;
+                    case "spawns":
+                        options.spawns = Double.parseDouble(value);
+                        break;
+                    case "deaths":
+                        options.deaths = Double.parseDouble(value);
+                        break;
+                    case "killed-by-player":
+                        options.killedByPlayer = Double.parseDouble(value);
+                        break;
+                    case "spawn-reasons":
+                        options.spawnReasons = Arrays.stream(value.split(",")).map(reason -> CreatureSpawnEvent.SpawnReason.valueOf(reason.trim().toUpperCase())).toArray(CreatureSpawnEvent.SpawnReason[]::new);
+                        break;
+                    case "realtime":
+                        options.realtime = Boolean.parseBoolean(value);
+                        break;
+                    case "seed":
+                        options.seed = Long.parseLong(value);
+                        break;
+                    case "config":
+                        options.config = new File(value);
+                        break;
+                    case "messages":
+                        options.messages = new File(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + parts[0]);
+                }
+            }
+
+            return options;
+        }
+    }
+
+    private LoadSimulator(Options options) {
+        this.options = options;
+        this.random = new Random(options.seed);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Options options;
+
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException exception) {
+            System.err.println(exception.getMessage());
+            System.err.println("Options: --players --mobs --seconds --area --moves (per player and second) --attacks --spawns --deaths (per second)");
+            System.err.println("         --killed-by-player (0-1) --spawn-reasons (e.g. NATURAL,SPAWNER) --realtime (true/false) --seed");
+            System.err.println("         --config (config.yml to use) --messages (messages.yml to use)");
+            System.exit(1);
+            return;
+        }
+
+        new LoadSimulator(options).run();
+    }
+
+    private void run() throws IOException, InterruptedException {
+        File dataFolder = FakeServer.createDataFolder();
+
+        try {
+            if (options.config != null) {
+                Files.copy(options.config.toPath(), new File(dataFolder, "config.yml").toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            if (options.messages != null) {
+                Files.copy(options.messages.toPath(), new File(dataFolder, "messages.yml").toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            server.install();
+            world = server.addWorld("world");
+
+            for (int index = 0; index < options.players; index++) {
+                players.add(server.addPlayer(world, randomCoordinate(), 64, randomCoordinate()));
+            }
+
+            for (int index = 0; index < options.mobs; index++) {
+                spawnMob();
+            }
+
+            TalkingMobs plugin = server.createPlugin(dataFolder);
+            server.enablePlugin(plugin);
+            message = plugin.getMessage();
+
+            simulate();
+
+            server.disablePlugin(plugin);
+        } finally {
+            FakeServer.deleteDataFolder(dataFolder);
+        }
+
+        report();
+    }
+
+    private void simulate() throws InterruptedException {
+        List<MemoryPoolMXBean> heapPools = getHeapPools();
+
+        for (MemoryPoolMXBean pool : heapPools) {
+            pool.resetPeakUsage();
+        }
+
+        double[] pending = new double[4];
+        int ticks = options.seconds * 20;
+        long nextTick = System.nanoTime();
+
+        cooldownSizes.add(message.getSpamTimeoutCount());
+
+        for (int tick = 1; tick <= ticks; tick++) {
+            long start = System.nanoTime();
+
+            pending[0] += options.moves * players.size() / 20;
+            pending[1] += options.attacks / 20;
+            pending[2] += options.spawns / 20;
+            pending[3] += options.deaths / 20;
+
+            for (; pending[0] >= 1; pending[0]--) {
+                movePlayer();
+            }
+
+            for (; pending[1] >= 1; pending[1]--) {
+                attackMob();
+            }
+
+            for (; pending[2] >= 1; pending[2]--) {
+                fire("spawn", new CreatureSpawnEvent(spawnMob(), options.spawnReasons[random.nextInt(options.spawnReasons.length)]));
+            }
+
+            for (; pending[3] >= 1; pending[3]--) {
+                killMob();
+            }
+
+            server.tick();
+
+            tickTimes.record(System.nanoTime() - start);
+
+            if (tick % 20 == 0) {
+                cooldownSizes.add(message.getSpamTimeoutCount());
+            }
+
+            if (options.realtime) {
+                nextTick += 50_000_000;
+                long sleep = nextTick - System.nanoTime();
+
+                if (sleep > 0) {
+                    Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+                }
+            }
+        }
+
+        // Let the workers finish and deliver the remaining messages
+        Thread.sleep(500);
+        server.tick();
+
+        peakHeap = 0;
+
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+    }
+
+    private void movePlayer() {
+        Player player = players.get(random.nextInt(players.size()));
+        FakeServer.FakeEntity state = FakeServer.getState(player);
+        Location from = state.getLocation().clone();
+
+        state.moveTo(clamp(from.getX() + random.nextDouble() * 2 - 1), from.getY(), clamp(from.getZ() + random.nextDouble() * 2 - 1));
+        state.rotate(random.nextFloat() * 360 - 180, random.nextFloat() * 60 - 30);
+
+        fire("move", new PlayerMoveEvent(player, from, state.getLocation().clone()));
+    }
+
+    @SuppressWarnings("deprecation")
+    private void attackMob() {
+        List<LivingEntity> mobs = server.getMobs();
+
+        if (mobs.isEmpty()) {
+            return;
+        }
+
+        Player player = players.get(random.nextInt(players.size()));
+        LivingEntity mob = mobs.get(random.nextInt(mobs.size()));
+
+        fire("attack", new EntityDamageByEntityEvent(player, mob, EntityDamageEvent.DamageCause.ENTITY_ATTACK, 1));
+    }
+
+    private void killMob() {
+        List<LivingEntity> mobs = server.getMobs();
+
+        if (mobs.isEmpty()) {
+            return;
+        }
+
+        LivingEntity mob = mobs.get(random.nextInt(mobs.size()));
+
+        if (random.nextDouble() < options.killedByPlayer) {
+            FakeServer.getState(mob).setKiller(players.get(random.nextInt(players.size())));
+        }
+
+        server.killMob(mob);
+
+        fire("death", new EntityDeathEvent(mob, new ArrayList<>()));
+    }
+
+    private LivingEntity spawnMob() {
+        LivingEntity mob = server.spawnMob(MOB_TYPES[random.nextInt(MOB_TYPES.length)], world, randomCoordinate(), 64, randomCoordinate());
+
+        FakeServer.getState(mob).rotate(random.nextFloat() * 360 - 180, 0);
+
+        return mob;
+    }
+
+    private void fire(String name, Event event) {
+        long start = System.nanoTime();
+
+        server.getPluginManager().callEvent(event);
+
+        latencies.computeIfAbsent(name, key -> new Metrics.Histogram()).record(System.nanoTime() - start);
+    }
+
+    private double randomCoordinate() {
+        return random.nextDouble() * options.area - options.area / 2;
+    }
+
+    private double clamp(double coordinate) {
+        return Math.max(-options.area / 2, Math.min(options.area / 2, coordinate));
+    }
+
+    private static List<MemoryPoolMXBean> getHeapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pools.add(pool);
+            }
+        }
+
+        return pools;
+    }
+
+    private void report() {
+        System.out.printf(Locale.ROOT, "Simulated %d seconds with %d players and %d mobs%n%n", options.seconds, options.players, options.mobs);
+
+        System.out.println("Event latencies (upper bounds of the percentiles):");
+        printLatency("tick", tickTimes);
+
+        for (String name : new String[]{"move", "attack", "spawn", "death"}) {
+            Metrics.Histogram histogram = latencies.get(name);
+
+            if (histogram != null) {
+                printLatency(name, histogram);
+            }
+        }
+
+        Metrics metrics = message.getMetrics();
+
+        for (Metrics.Handler handler : Metrics.Handler.values()) {
+            Metrics.Histogram histogram = metrics.getHandler(handler);
+
+            if (histogram.getCount() > 0) {
+                printLatency("handler " + handler.getName(), histogram);
+            }
+        }
+
+        System.out.println();
+        System.out.println("Messages:");
+
+        for (Message.EventType eventType : Message.EventType.values()) {
+            if (metrics.getReceived(eventType) == 0) {
+                continue;
+            }
+
+            StringBuilder dropped = new StringBuilder();
+
+            for (Metrics.DropReason reason : Metrics.DropReason.values()) {
+                long count = metrics.getDropped(eventType, reason);
+
+                if (count > 0) {
+                    dropped.append(' ').append(reason.getName()).append('=').append(count);
+                }
+            }
+
+            System.out.printf(Locale.ROOT, "  %-14s received=%d rendered=%d sent=%d dropped:%s%n", eventType.getType(), metrics.getReceived(eventType), metrics.getRendered(eventType), metrics.getSent(eventType), dropped.length() == 0 ? " none" : dropped);
+        }
+
+        System.out.printf(Locale.ROOT, "  queue overflows: %d%n", metrics.getQueueOverflows());
+
+        long[] delivered = new long[players.size()];
+        long total = 0;
+
+        for (int index = 0; index < players.size(); index++) {
+            delivered[index] = FakeServer.getState(players.get(index)).getReceivedMessages();
+            total += delivered[index];
+        }
+
+        Arrays.sort(delivered);
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Messages delivered per player: min=%d median=%d max=%d avg=%.1f (%.2f per player and second)%n",
+                delivered[0], delivered[delivered.length / 2], delivered[delivered.length - 1], total / (double) delivered.length, total / (double) delivered.length / options.seconds);
+
+        System.out.printf(Locale.ROOT, "Peak heap usage: %.1f MiB%n", peakHeap / 1048576D);
+
+        int peakCooldown = 0;
+
+        for (int size : cooldownSizes) {
+            peakCooldown = Math.max(peakCooldown, size);
+        }
+
+        System.out.printf(Locale.ROOT, "Spam timeout entries: start=%d peak=%d end=%d%n", cooldownSizes.get(0), peakCooldown, cooldownSizes.get(cooldownSizes.size() - 1));
+        System.out.println("  per second: " + cooldownSizes);
+    }
+
+    private static void printLatency(String name, Metrics.Histogram histogram) {
+        System.out.printf(Locale.ROOT, "  %-30s count=%-9d avg=%9.3f us  p50<%9.3f us  p99<%9.3f us  p99.9<%9.3f us%n", name, histogram.getCount(),
+                histogram.getTotal() / (double) histogram.getCount() / 1000,
+                histogram.getPercentile(0.50) / 1000D,
+                histogram.getPercentile(0.99) / 1000D,
+                histogram.getPercentile(0.999) / 1000D);
+    }
+}
@@ -0,0 +1,115 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking the toggles of players loaded from a large players.yml
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PreferenceBenchmark {
+    @Param({"10000", "100000"})
+    public int players;
+
+    private File dataFolder;
+    private TalkingMobs plugin;
+    private Player[] onlinePlayers;
+    private Message.EventType[] eventTypes;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataFolder = FakeServer.createDataFolder();
+
+        FakeServer server = new FakeServer();
+        World world = server.addWorld("world");
+
+        for (int index = 0; index < players; index++) {
+            server.addPlayer(world, 0, 64, 0);
+        }
+
+        List<Player> playerList = server.getOnlinePlayers();
+        onlinePlayers = playerList.toArray(new Player[0]);
+
+        writePlayers(new File(dataFolder, "players.yml"), onlinePlayers);
+
+        plugin = server.createPlugin(dataFolder);
+        plugin.reloadConfig();
+
+        // Loads the toggles of all online players from players.yml
+        plugin.getPreferenceStore().start();
+
+        Random random = new Random(0);
+        Message.EventType[] allEventTypes = Message.EventType.values();
+
+        eventTypes = new Message.EventType[1024];
+
+        for (int index = 0; index < eventTypes.length; index++) {
+            eventTypes[index] = allEventTypes[random.nextInt(allEventTypes.length)];
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        plugin.getPreferenceStore().shutdown();
+        FakeServer.deleteDataFolder(dataFolder);
+    }
+
+    /**
+     * Write a players.yml in which every third player disabled an event type and every tenth player disabled all
+     */
+    private static void writePlayers(File file, Player[] players) throws IOException {
+        Message.EventType[] eventTypes = Message.EventType.values();
+
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (int index = 0; index < players.length; index++) {
+                writer.write(players[index].getUniqueId() + ":\n");
+                writer.write("  name: " + players[index].getName() + "\n");
+                writer.write("  enabled:\n");
+                writer.write("    all: " + (index % 10 != 0) + "\n");
+
+                if (index % 3 == 0) {
+                    writer.write("    " + eventTypes[index % eventTypes.length].getType() + ": false\n");
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean isEnabled() {
+        int index = next++;
+
+        return plugin.getMessage().isEnabled(onlinePlayers[index % onlinePlayers.length], eventTypes[index & (eventTypes.length - 1)]);
+    }
+
+    @Benchmark
+    public boolean isEnabledAll() {
+        return plugin.getMessage().isEnabled(onlinePlayers[next++ % onlinePlayers.length]);
+    }
+}
@@ -0,0 +1,85 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.entity.Player;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Players which may receive messages of each event type
+ *
+ * A player is part of the audience of an event type if the player has the permission to receive mob messages and has
+ * the event type enabled. The sets are updated on the main thread once a player joins, quits, changes the world or
+ * toggles an event type. As there is no event for permission changes, all online players are refreshed periodically.
+ * The sets can be read from any thread.
+ */
+class Audience {
+    private final PreferenceStore preferences;
+    private final PlayerTracker playerTracker;
+    private final Map<Message.EventType, Set<TrackedPlayer>> players = new EnumMap<>(Message.EventType.class);
+
+    Audience(PreferenceStore preferenceStore, PlayerTracker tracker) {
+        preferences = preferenceStore;
+        playerTracker = tracker;
+
+        for (Message.EventType eventType : Message.EventType.values()) {
+            players.put(eventType, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * Get the players which may receive messages of the event type
+     *
+     * @param eventType The event type
+     * @return The players (must not be modified)
+     */
+    Set<TrackedPlayer> get(Message.EventType eventType) {
+        return players.get(eventType);
+    }
+
+    /**
+     * Check the permission and toggles of the player and add or remove the player to or from the audience sets
+     *
+     * @param player The player
+     */
+    void update(Player player) {
+        TrackedPlayer trackedPlayer = playerTracker.get(player);
+
+        if (trackedPlayer == null) {
+            return;
+        }
+
+        boolean allowed = player.isOnline() && player.hasPermission(Permission.RECEIVE.permission());
+        PreferenceStore.Preferences playerPreferences = preferences.get(player);
+
+        for (Map.Entry<Message.EventType, Set<TrackedPlayer>> entry : players.entrySet()) {
+            if (allowed && (playerPreferences == null || playerPreferences.isEnabled(entry.getKey()))) {
+                entry.getValue().add(trackedPlayer);
+            } else {
+                entry.getValue().remove(trackedPlayer);
+            }
+        }
+    }
+
+    /**
+     * Update all tracked players
+     */
+    void refresh() {
+        for (TrackedPlayer trackedPlayer : playerTracker.getAll()) {
+            update(trackedPlayer.getPlayer());
+        }
+    }
+
+    /**
+     * Remove the player from all audience sets (e.g. once the player left the server)
+     *
+     * @param trackedPlayer The player
+     */
+    void remove(TrackedPlayer trackedPlayer) {
+        for (Set<TrackedPlayer> audience : players.values()) {
+            audience.remove(trackedPlayer);
+        }
+    }
+}
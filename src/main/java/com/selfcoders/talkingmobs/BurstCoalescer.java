@@ -0,0 +1,149 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.EntityType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Merges bursts of broadcast messages (e.g. from a mob farm or killing all mobs at once) into a single message
+ *
+ * Broadcasts are collected for a window of ticks, grouped by world region, mob type and event type. At the end of the
+ * window, each group with less events than the threshold is broadcast as usual. Larger groups are broadcast once
+ * using the message of the first mob formatted with the summary format (which may contain the number of events).
+ * Collecting and flushing happens on the main thread.
+ */
+class BurstCoalescer {
+    private final Map<Key, Burst> bursts = new HashMap<>();
+    private int window;
+    private double regionSize;
+    private int threshold;
+    private volatile String summaryFormat;
+    private int ticks;
+
+    /**
+     * The region, mob type and event type of a broadcast
+     */
+    private static final class Key {
+        private final UUID worldId;
+        private final int regionX;
+        private final int regionZ;
+        private final EntityType entityType;
+        private final Message.EventType eventType;
+
+        private Key(MessageRequest request, double regionSize) {
+            worldId = request.getWorldId();
+            regionX = (int) Math.floor(request.getX() / regionSize);
+            regionZ = (int) Math.floor(request.getZ() / regionSize);
+            entityType = request.getEntityType();
+            eventType = request.getMessageEventType();
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) object;
+
+            return regionX == other.regionX && regionZ == other.regionZ && entityType == other.entityType && eventType == other.eventType && Objects.equals(worldId, other.worldId);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = Objects.hashCode(worldId);
+            hash = 31 * hash + regionX;
+            hash = 31 * hash + regionZ;
+            hash = 31 * hash + entityType.ordinal();
+            hash = 31 * hash + eventType.ordinal();
+
+            return hash;
+        }
+    }
+
+    /**
+     * The broadcasts collected for a key within the current window
+     */
+    private static class Burst {
+        private final List<MessageRequest> requests = new ArrayList<>();
+        private int count;
+    }
+
+    /**
+     * Apply the configuration (coalesce section of config.yml)
+     *
+     * @param config The configuration section (might be null to disable merging)
+     */
+    void configure(ConfigurationSection config) {
+        window = config == null ? 0 : Math.max(0, config.getInt("window"));
+        regionSize = config == null ? 64 : Math.max(1, config.getDouble("region-size", 64));
+        threshold = config == null ? 0 : Math.max(2, config.getInt("threshold"));
+        summaryFormat = ChatColor.translateAlternateColorCodes('&', config == null ? "%message%" : config.getString("summary-format", "%message% &7(x%count%)"));
+    }
+
+    /**
+     * Add the broadcast to the current window
+     *
+     * @param request The request (must be a broadcast)
+     * @return True if the request has been added, false if merging is disabled and the request should be sent directly
+     */
+    boolean add(MessageRequest request) {
+        if (window == 0) {
+            return false;
+        }
+
+        Burst burst = bursts.computeIfAbsent(new Key(request, regionSize), key -> new Burst());
+
+        // Only the first request is needed once the burst reached the threshold
+        if (burst.count < threshold) {
+            burst.requests.add(request);
+        }
+
+        burst.count++;
+
+        return true;
+    }
+
+    /**
+     * Pass the collected broadcasts to the consumer at the end of the window (called on the main thread once per tick)
+     *
+     * @param consumer The consumer receiving the requests to send (merged bursts have a count greater than 1)
+     */
+    void tick(Consumer<MessageRequest> consumer) {
+        if (bursts.isEmpty() || ++ticks < window) {
+            return;
+        }
+
+        ticks = 0;
+
+        for (Burst burst : bursts.values()) {
+            if (burst.count < threshold) {
+                burst.requests.forEach(consumer);
+                continue;
+            }
+
+            consumer.accept(burst.requests.get(0).withCount(burst.count));
+        }
+
+        bursts.clear();
+    }
+
+    /**
+     * Format the message of a merged burst using the summary format (may be called from any thread)
+     *
+     * @param message The rendered message of the first mob
+     * @param count   The number of events
+     * @return The summary message
+     */
+    String format(String message, int count) {
+        return summaryFormat.replace("%count%", String.valueOf(count)).replace("%message%", message);
+    }
+}
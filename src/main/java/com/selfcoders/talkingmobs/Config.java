@@ -1,18 +1,22 @@
 package com.selfcoders.talkingmobs;
 
 import com.google.common.base.Charsets;
+import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.YamlConfiguration;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.logging.Level;
 
 class Config {
     private final TalkingMobs plugin;
     private final File file;
-    private YamlConfiguration config;
+    private volatile YamlConfiguration config;
 
     Config(TalkingMobs plugin, String filename) {
         this.plugin = plugin;
@@ -34,9 +38,64 @@ class Config {
         }
     }
 
+    /**
+     * Parse the file without replacing the loaded config (e.g. to validate it on another thread before using it)
+     *
+     * @return The parsed config (with the defaults of the plugin jar)
+     * @throws IOException                   If the file could not be read
+     * @throws InvalidConfigurationException If the file is not valid YAML
+     */
+    YamlConfiguration parse() throws IOException, InvalidConfigurationException {
+        return parse(plugin, file);
+    }
+
+    /**
+     * Parse the given file of the data folder (unlike {@link YamlConfiguration#loadConfiguration(File)}, errors are
+     * thrown instead of returning an empty config)
+     *
+     * @param plugin The instance of this plugin
+     * @param file   The file
+     * @return The parsed config (with the defaults of the plugin jar)
+     * @throws IOException                   If the file could not be read
+     * @throws InvalidConfigurationException If the file is not valid YAML
+     */
+    static YamlConfiguration parse(TalkingMobs plugin, File file) throws IOException, InvalidConfigurationException {
+        YamlConfiguration parsedConfig = new YamlConfiguration();
+        parsedConfig.loadFromString(new String(Files.readAllBytes(file.toPath()), Charsets.UTF_8));
+
+        InputStream defaultConfigStream = plugin.getResource(file.getName());
+        if (defaultConfigStream != null) {
+            parsedConfig.setDefaults(YamlConfiguration.loadConfiguration(new InputStreamReader(defaultConfigStream, Charsets.UTF_8)));
+        }
+
+        return parsedConfig;
+    }
+
+    /**
+     * Replace the loaded config (e.g. with a config returned by {@link #parse()})
+     *
+     * @param config The new config
+     */
+    void set(YamlConfiguration config) {
+        this.config = config;
+    }
+
+    /**
+     * Save the config by writing it to a temporary file and replacing the config file with it
+     * This makes sure the config file is never left partially written.
+     */
     public void save() {
+        File temporaryFile = new File(this.file.getPath() + ".tmp");
+
         try {
-            this.getConfig().save(this.file);
+            Files.createDirectories(this.file.getAbsoluteFile().getParentFile().toPath());
+            Files.write(temporaryFile.toPath(), this.getConfig().saveToString().getBytes(Charsets.UTF_8));
+
+            try {
+                Files.move(temporaryFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException exception) {
+                Files.move(temporaryFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
         } catch (IOException exception) {
             this.plugin.getLogger().log(Level.SEVERE, "Could not save config to " + this.file, exception);
         }
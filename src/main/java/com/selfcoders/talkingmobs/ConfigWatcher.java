@@ -0,0 +1,150 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Background thread reloading config.yml and the messages files once they have been changed
+ *
+ * Changes of the data folder are watched using a {@link WatchService}. As editors often write a file in multiple
+ * steps, a file is only reloaded once there were no further changes for a short delay. The files are parsed and
+ * compiled on this thread, only the parts which have to run on the main thread (e.g. restarting the tasks) are
+ * scheduled. If a file can not be parsed, the error is logged and the active configuration is kept.
+ */
+class ConfigWatcher implements Runnable {
+    static final String CONFIG_FILE = "config.yml";
+    static final String MESSAGES_FILE = "messages.yml";
+
+    private static final long QUIET_PERIOD = 500;
+
+    private final TalkingMobs plugin;
+    private WatchService watchService;
+    private Thread thread;
+
+    ConfigWatcher(TalkingMobs pluginInstance) {
+        plugin = pluginInstance;
+    }
+
+    /**
+     * Start or stop watching the configuration files (must be called on the main thread)
+     *
+     * @param enabled True to start watching (if not already running), false to stop
+     */
+    void setEnabled(boolean enabled) {
+        if (enabled == (thread != null)) {
+            return;
+        }
+
+        if (!enabled) {
+            stop();
+            return;
+        }
+
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            plugin.getDataFolder().toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException exception) {
+            plugin.getLogger().log(Level.WARNING, "Could not watch the configuration files, use /talkingmobs reload after changing them", exception);
+            close();
+            return;
+        }
+
+        thread = new Thread(this, plugin.getName() + " Config Watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop watching the configuration files
+     */
+    void stop() {
+        if (thread == null) {
+            return;
+        }
+
+        close();
+        thread.interrupt();
+        thread = null;
+    }
+
+    private void close() {
+        try {
+            watchService.close();
+        } catch (IOException exception) {
+            plugin.getLogger().log(Level.WARNING, "Could not stop watching the configuration files", exception);
+        }
+
+        watchService = null;
+    }
+
+    @Override
+    public void run() {
+        WatchService service = watchService;
+        Set<String> changedFiles = new LinkedHashSet<>();
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = service.take();
+
+                // Collect all changes till the files have not been changed for the quiet period
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof Path) {
+                            String fileName = event.context().toString();
+
+                            if (fileName.equals(CONFIG_FILE) || fileName.equals(MESSAGES_FILE) || isLocaleMessagesFile(fileName)) {
+                                changedFiles.add(fileName);
+                            }
+                        }
+                    }
+
+                    key.reset();
+                    key = service.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS);
+                }
+
+                for (String fileName : changedFiles) {
+                    reload(fileName);
+                }
+
+                changedFiles.clear();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException exception) {
+            // Stopped
+        }
+    }
+
+    private static boolean isLocaleMessagesFile(String fileName) {
+        return fileName.startsWith("messages_") && fileName.endsWith(".yml");
+    }
+
+    private void reload(String fileName) {
+        try {
+            if (fileName.equals(CONFIG_FILE)) {
+                plugin.reloadConfig(Config.parse(plugin, new File(plugin.getDataFolder(), CONFIG_FILE)));
+            } else if (fileName.equals(MESSAGES_FILE)) {
+                plugin.getMessage().reloadMessages();
+            } else {
+                // The locale catalogs are compiled again once they are used
+                plugin.getMessage().reloadLocales();
+            }
+        } catch (IOException | InvalidConfigurationException exception) {
+            plugin.getLogger().log(Level.WARNING, "Could not reload {0}, keeping the active configuration: {1}", new Object[]{fileName, exception.getMessage()});
+        } catch (RuntimeException exception) {
+            // E.g. a value of the wrong type in a well-formed file, which must not stop the watcher thread
+            plugin.getLogger().log(Level.WARNING, "Could not reload " + fileName + ", keeping the active configuration", exception);
+        }
+    }
+}
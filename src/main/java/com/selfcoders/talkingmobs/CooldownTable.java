@@ -0,0 +1,298 @@
+package com.selfcoders.talkingmobs;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table storing the time of the last message per mob, player and event type
+ *
+ * Keys are packed into a primitive long (see {@link #key(int, int, Message.EventType)}) and the timestamps are stored in
+ * a primitive array, so checking and updating a cooldown does not allocate. Expired entries are evicted incrementally
+ * on each update and the table shrinks again once most of its entries have been evicted. Each entry may also hold a
+ * primitive value which expires together with its timestamp (see {@link #put(long, long, long, long)}).
+ */
+class CooldownTable {
+    private static final int MIN_CAPACITY = 64;
+    private static final int EVICTIONS_PER_UPDATE = 2;
+    private static final int PLAYER_ID_BITS = 28;
+    private static final int PLAYER_ID_MASK = (1 << PLAYER_ID_BITS) - 1;
+
+    /**
+     * Value of empty slots (System.currentTimeMillis() never returns 0)
+     */
+    private static final long EMPTY = 0;
+
+    private long[] keys;
+    private long[] timestamps;
+    private long[] values;
+    private int mask;
+    private int size;
+    private int evictionCursor;
+
+    CooldownTable() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Pack the given IDs into a key
+     *
+     * The upper 32 bits contain the entity ID of the mob, followed by the lower 28 bits of the entity ID of the player
+     * and 4 bits for the event type.
+     *
+     * @param mobId     The entity ID of the mob
+     * @param playerId  The entity ID of the player
+     * @param eventType The event type
+     * @return The packed key
+     */
+    static long key(int mobId, int playerId, Message.EventType eventType) {
+        return ((long) mobId << 32) | ((long) (playerId & PLAYER_ID_MASK) << 4) | eventType.ordinal();
+    }
+
+    private static int mobId(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private static int playerId(long key) {
+        return (int) (key >>> 4) & PLAYER_ID_MASK;
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+
+        return (int) key;
+    }
+
+    /**
+     * Check whether the key is still in its cooldown and set its last message time to now
+     *
+     * @param key     The key (see {@link #key(int, int, Message.EventType)})
+     * @param now     The current time in milliseconds
+     * @param timeout The cooldown in milliseconds
+     * @return True if the previous message for the key has been sent within the cooldown, false otherwise
+     */
+    boolean touch(long key, long now, long timeout) {
+        evictExpired(now, timeout);
+
+        int slot = hash(key) & mask;
+
+        while (timestamps[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                long previous = timestamps[slot];
+                timestamps[slot] = now;
+                return now - previous <= timeout;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        timestamps[slot] = now;
+        size++;
+
+        if (size > (mask + 1) >> 1) {
+            resize((mask + 1) << 1);
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the value of the key
+     *
+     * @param key     The key (see {@link #key(int, int, Message.EventType)})
+     * @param now     The current time in milliseconds
+     * @param timeout The time in milliseconds after which an unused entry expires
+     * @return The value or 0 if there is no entry for the key or it has expired
+     */
+    long get(long key, long now, long timeout) {
+        int slot = hash(key) & mask;
+
+        while (timestamps[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return now - timestamps[slot] > timeout ? 0 : values[slot];
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Set the value of the key and set its last use time to now
+     *
+     * @param key     The key (see {@link #key(int, int, Message.EventType)})
+     * @param now     The current time in milliseconds
+     * @param timeout The time in milliseconds after which an unused entry expires
+     * @param value   The value
+     */
+    void put(long key, long now, long timeout, long value) {
+        evictExpired(now, timeout);
+
+        int slot = hash(key) & mask;
+
+        while (timestamps[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                timestamps[slot] = now;
+                values[slot] = value;
+                return;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        timestamps[slot] = now;
+        values[slot] = value;
+        size++;
+
+        if (size > (mask + 1) >> 1) {
+            resize((mask + 1) << 1);
+        }
+    }
+
+    /**
+     * Remove all entries of the given entity (as mob or player)
+     *
+     * @param entityId The entity ID
+     */
+    void remove(int entityId) {
+        remove(new int[]{entityId});
+    }
+
+    /**
+     * Remove all entries of the given entities (as mob or player)
+     *
+     * @param entityIds The entity IDs
+     */
+    void remove(int[] entityIds) {
+        if (size == 0 || entityIds.length == 0) {
+            return;
+        }
+
+        int[] sortedMobIds = entityIds.clone();
+        int[] sortedPlayerIds = new int[entityIds.length];
+
+        for (int index = 0; index < entityIds.length; index++) {
+            sortedPlayerIds[index] = entityIds[index] & PLAYER_ID_MASK;
+        }
+
+        Arrays.sort(sortedMobIds);
+        Arrays.sort(sortedPlayerIds);
+
+        int slot = 0;
+
+        while (slot <= mask) {
+            long key = keys[slot];
+
+            if (timestamps[slot] != EMPTY && (Arrays.binarySearch(sortedMobIds, mobId(key)) >= 0 || Arrays.binarySearch(sortedPlayerIds, playerId(key)) >= 0)) {
+                // Another entry might have been shifted into this slot, so check it again
+                removeAt(slot);
+            } else {
+                slot++;
+            }
+        }
+
+        shrinkIfSparse();
+    }
+
+    /**
+     * @return The number of entries currently stored
+     */
+    int size() {
+        return size;
+    }
+
+    private void evictExpired(long now, long timeout) {
+        for (int step = 0; step < EVICTIONS_PER_UPDATE && size > 0; step++) {
+            int slot = evictionCursor;
+
+            if (timestamps[slot] != EMPTY && now - timestamps[slot] > timeout) {
+                // Another entry might have been shifted into this slot, so check it again on the next step
+                removeAt(slot);
+                continue;
+            }
+
+            evictionCursor = (slot + 1) & mask;
+
+            if (evictionCursor == 0) {
+                shrinkIfSparse();
+            }
+        }
+    }
+
+    /**
+     * Remove the entry at the given slot by shifting back the following entries of the probe sequence
+     */
+    private void removeAt(int slot) {
+        int gap = slot;
+        int current = slot;
+
+        while (true) {
+            current = (current + 1) & mask;
+
+            if (timestamps[current] == EMPTY) {
+                break;
+            }
+
+            int home = hash(keys[current]) & mask;
+
+            if (((current - home) & mask) >= ((current - gap) & mask)) {
+                keys[gap] = keys[current];
+                timestamps[gap] = timestamps[current];
+                values[gap] = values[current];
+                gap = current;
+            }
+        }
+
+        keys[gap] = 0;
+        timestamps[gap] = EMPTY;
+        values[gap] = 0;
+        size--;
+    }
+
+    private void shrinkIfSparse() {
+        int capacity = mask + 1;
+
+        if (capacity > MIN_CAPACITY && size < capacity >> 3) {
+            resize(capacity >> 1);
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldTimestamps = timestamps;
+        long[] oldValues = values;
+
+        allocate(capacity);
+
+        for (int index = 0; index < oldKeys.length; index++) {
+            if (oldTimestamps[index] == EMPTY) {
+                continue;
+            }
+
+            int slot = hash(oldKeys[index]) & mask;
+
+            while (timestamps[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot] = oldKeys[index];
+            timestamps[slot] = oldTimestamps[index];
+            values[slot] = oldValues[index];
+            size++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        timestamps = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        size = 0;
+        evictionCursor = 0;
+    }
+}
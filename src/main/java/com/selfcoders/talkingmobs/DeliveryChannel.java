@@ -0,0 +1,43 @@
+package com.selfcoders.talkingmobs;
+
+/**
+ * Possible ways of showing a mob message (configurable per event type in config.yml, see {@link DeliveryChannels})
+ */
+public enum DeliveryChannel {
+    /**
+     * Send it as chat message
+     */
+    CHAT("chat"),
+    /**
+     * Show it above the hotbar
+     */
+    ACTION_BAR("action-bar"),
+    /**
+     * Show it as title (the part after the first line break as subtitle)
+     */
+    TITLE("title"),
+    /**
+     * Show it as floating text above the mob (visible to all players near the mob)
+     */
+    HOLOGRAM("hologram");
+
+    private final String type;
+
+    DeliveryChannel(String type) {
+        this.type = type;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public static DeliveryChannel fromString(String channel) {
+        for (DeliveryChannel value : values()) {
+            if (value.type.equalsIgnoreCase(channel)) {
+                return value;
+            }
+        }
+
+        return null;
+    }
+}
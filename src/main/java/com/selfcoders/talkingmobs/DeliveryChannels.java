@@ -0,0 +1,153 @@
+package com.selfcoders.talkingmobs;
+
+import net.md_5.bungee.api.ChatMessageType;
+import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.entity.Player;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The ways of showing the messages to the players, configurable per event type (must only be used on the main thread)
+ *
+ * Chat messages are sent directly. Messages for the action bar, titles and holograms are collected during the tick and
+ * sent once by {@link #flush()}, so each player receives at most one action bar (containing all of its messages) and
+ * one title per tick and each mob updates its hologram at most once per tick.
+ */
+class DeliveryChannels {
+    private final TalkingMobs plugin;
+    private final Metrics metrics;
+    private final HologramPool holograms = new HologramPool();
+    private final Map<Player, Pending> actionBars = new LinkedHashMap<>();
+    private final Map<Player, Pending> titles = new LinkedHashMap<>();
+    private final Map<UUID, Pending> pendingHolograms = new HashMap<>();
+
+    /**
+     * A message collected during the tick (the action bars contain the messages of all requests, the request of the
+     * first one is kept)
+     */
+    private static class Pending {
+        private final MessageRequest request;
+        private final StringBuilder text;
+
+        private Pending(MessageRequest request, String text) {
+            this.request = request;
+            this.text = new StringBuilder(text);
+        }
+    }
+
+    /**
+     * Constructor of the class
+     *
+     * @param pluginInstance The instance of this plugin
+     * @param metrics        The metrics recording the time spent sending the messages
+     */
+    DeliveryChannels(TalkingMobs pluginInstance, Metrics metrics) {
+        plugin = pluginInstance;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Send the message using the given channel (the one configured for the event type or chosen by a listener of
+     * {@link TalkingMobMessageEvent})
+     *
+     * @param player  The player which should receive the message
+     * @param request The request the message belongs to (null for messages not belonging to a mob, which must be sent
+     *                as chat messages)
+     * @param message The rendered message
+     * @param channel The channel (chat, action bar or title)
+     */
+    void send(Player player, MessageRequest request, String message, DeliveryChannel channel) {
+        Settings settings = plugin.getSettings();
+
+        switch (channel) {
+            case ACTION_BAR:
+                Pending actionBar = actionBars.get(player);
+
+                if (actionBar == null) {
+                    actionBars.put(player, new Pending(request, message));
+                } else {
+                    actionBar.text.append(settings.getActionBarSeparator()).append(message);
+                }
+                break;
+            case TITLE:
+                // Titles replace each other, so only the last one of the tick is sent
+                titles.put(player, new Pending(request, message));
+                break;
+            default:
+                // Holograms are shown using show(), a message rendered for a single player is sent as chat message
+                // instead (e.g. if the channel has been changed by a reload in the meantime)
+                long start = System.nanoTime();
+                player.sendMessage(message);
+                metrics.delivered(request == null ? null : request.getEventType(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Show the text above the mob of the request (the first text of the mob in this tick is shown)
+     *
+     * @param request The request the text belongs to
+     * @param text    The text rendered once for all players
+     */
+    void show(MessageRequest request, String text) {
+        pendingHolograms.putIfAbsent(request.getMobUniqueId(), new Pending(request, text));
+    }
+
+    /**
+     * Send the action bars and titles and update the holograms collected during this tick (called once per tick)
+     */
+    void flush() {
+        Settings settings = plugin.getSettings();
+
+        if (!actionBars.isEmpty()) {
+            for (Map.Entry<Player, Pending> entry : actionBars.entrySet()) {
+                long start = System.nanoTime();
+                entry.getKey().spigot().sendMessage(ChatMessageType.ACTION_BAR, TextComponent.fromLegacyText(entry.getValue().text.toString()));
+                metrics.delivered(entry.getValue().request.getEventType(), System.nanoTime() - start);
+            }
+
+            actionBars.clear();
+        }
+
+        if (!titles.isEmpty()) {
+            for (Map.Entry<Player, Pending> entry : titles.entrySet()) {
+                String message = entry.getValue().text.toString();
+                int lineBreak = message.indexOf('\n');
+                String title = lineBreak < 0 ? "" : message.substring(0, lineBreak);
+                String subtitle = lineBreak < 0 ? message : message.substring(lineBreak + 1);
+
+                long start = System.nanoTime();
+                entry.getKey().sendTitle(title, subtitle, settings.getTitleFadeIn(), settings.getTitleStay(), settings.getTitleFadeOut());
+                metrics.delivered(entry.getValue().request.getEventType(), System.nanoTime() - start);
+            }
+
+            titles.clear();
+        }
+
+        if (!pendingHolograms.isEmpty()) {
+            for (Map.Entry<UUID, Pending> entry : pendingHolograms.entrySet()) {
+                MessageRequest request = entry.getValue().request;
+
+                long start = System.nanoTime();
+                holograms.show(entry.getKey(), plugin.getServer().getEntity(entry.getKey()), request.getWorldId() == null ? null : plugin.getServer().getWorld(request.getWorldId()), request.getX(), request.getY(), request.getZ(), entry.getValue().text.toString(), settings.getHologramDuration(), settings.getHologramHeight());
+                metrics.delivered(request.getEventType(), System.nanoTime() - start);
+            }
+
+            pendingHolograms.clear();
+        }
+
+        holograms.tick(settings.getHologramHeight(), settings.getHologramPoolSize());
+    }
+
+    /**
+     * Discard the collected messages and remove the holograms (e.g. once the plugin is disabled)
+     */
+    void clear() {
+        actionBars.clear();
+        titles.clear();
+        pendingHolograms.clear();
+        holograms.clear();
+    }
+}
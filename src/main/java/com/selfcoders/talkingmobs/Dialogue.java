@@ -0,0 +1,287 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Immutable graph of the steps of a conversation, compiled from a list of steps in the "dialogue" section of a mob in
+ * messages.yml (e.g. villager.dialogue.interacted)
+ *
+ * Each step has a message and the step following it. The following step is the first step of the branches whose
+ * conditions are met when the mob talks again, otherwise the step set as "next" (or the step defined below it). Step
+ * names are resolved to indices while compiling, so advancing a conversation is an array access plus the checks of
+ * the conditions. A conversation ends at "end" (or after the last step) and starts again with the first step.
+ */
+class Dialogue {
+    /**
+     * Step index marking the end of the conversation
+     */
+    static final int END = -1;
+
+    private static final String END_NAME = "end";
+
+    private final MessageTemplate[] messages;
+    private final int[] next;
+    private final Branch[][] branches;
+    private final MessageTemplate.References references;
+
+    /**
+     * A condition checked on the main thread when the mob talks again
+     */
+    @FunctionalInterface
+    interface Condition {
+        /**
+         * @param player The player talking to the mob
+         * @param mob    The mob
+         * @return True if the condition is met
+         */
+        boolean test(Player player, Entity mob);
+    }
+
+    /**
+     * A conditional transition to another step
+     */
+    private static class Branch {
+        private final Condition[] conditions;
+        private final int step;
+
+        private Branch(Condition[] conditions, int step) {
+            this.conditions = conditions;
+            this.step = step;
+        }
+
+        private boolean matches(Player player, Entity mob) {
+            for (Condition condition : conditions) {
+                if (!condition.test(player, mob)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    private Dialogue(MessageTemplate[] messages, int[] next, Branch[][] branches) {
+        this.messages = messages;
+        this.next = next;
+        this.branches = branches;
+
+        MessageTemplate.References stepReferences = MessageTemplate.References.NONE;
+
+        for (MessageTemplate message : messages) {
+            stepReferences = stepReferences.union(message.getReferences());
+        }
+
+        references = stepReferences;
+    }
+
+    /**
+     * Compile the steps of the given section
+     *
+     * Example:
+     * <pre>
+     * - message: "Hello %player%!"
+     * - message: "Nice weather today, isn't it?"
+     *   branches:
+     *     - time: night
+     *       next: night
+     *     - holding: BREAD
+     *       next: bread
+     *   next: end
+     * - name: night
+     *   message: "Shouldn't you be in bed?"
+     *   next: end
+     * - name: bread
+     *   message: "Is that bread? I'm starving!"
+     * </pre>
+     *
+     * @param config The configuration containing the messages (messages.yml)
+     * @param path   The path of the steps (e.g. villager.dialogue.interacted)
+     * @param logger The logger used to report invalid steps
+     * @return The compiled dialogue or null if there are no steps
+     */
+    static Dialogue compile(ConfigurationSection config, String path, Logger logger) {
+        List<Map<?, ?>> steps = config.getMapList(path);
+
+        if (steps.isEmpty()) {
+            logger.log(Level.WARNING, "Dialogue ''{0}'' has no steps", path);
+            return null;
+        }
+
+        Map<String, Integer> names = new HashMap<>();
+
+        for (int index = 0; index < steps.size(); index++) {
+            Object name = steps.get(index).get("name");
+
+            if (name != null && names.put(String.valueOf(name), index) != null) {
+                logger.log(Level.WARNING, "Step ''{0}'' of dialogue ''{1}'' is defined multiple times, using the last one", new Object[]{name, path});
+            }
+        }
+
+        MessageTemplate[] messages = new MessageTemplate[steps.size()];
+        int[] next = new int[steps.size()];
+        Branch[][] branches = new Branch[steps.size()][];
+
+        for (int index = 0; index < steps.size(); index++) {
+            Map<?, ?> step = steps.get(index);
+            String stepPath = path + "." + (index + 1);
+            Object message = step.get("message");
+
+            if (message == null) {
+                logger.log(Level.WARNING, "Step {0} of dialogue ''{1}'' has no message", new Object[]{index + 1, path});
+                message = "";
+            }
+
+            messages[index] = MessageTemplate.parse(String.valueOf(message));
+
+            if (step.containsKey("next")) {
+                next[index] = resolve(step.get("next"), names, stepPath, logger);
+            } else {
+                next[index] = index + 1 < steps.size() ? index + 1 : END;
+            }
+
+            List<Branch> stepBranches = new ArrayList<>();
+            Object branchList = step.get("branches");
+
+            if (branchList instanceof List) {
+                for (Object branch : (List<?>) branchList) {
+                    if (branch instanceof Map) {
+                        Branch compiled = compileBranch((Map<?, ?>) branch, names, stepPath, logger);
+
+                        if (compiled != null) {
+                            stepBranches.add(compiled);
+                        }
+                    }
+                }
+            } else if (branchList != null) {
+                logger.log(Level.WARNING, "The branches of ''{0}'' must be a list", stepPath);
+            }
+
+            branches[index] = stepBranches.toArray(new Branch[0]);
+        }
+
+        return new Dialogue(messages, next, branches);
+    }
+
+    private static Branch compileBranch(Map<?, ?> branch, Map<String, Integer> names, String path, Logger logger) {
+        if (!branch.containsKey("next")) {
+            logger.log(Level.WARNING, "A branch of ''{0}'' has no next step", path);
+            return null;
+        }
+
+        List<Condition> conditions = new ArrayList<>();
+
+        for (Map.Entry<?, ?> entry : branch.entrySet()) {
+            String type = String.valueOf(entry.getKey());
+            String value = String.valueOf(entry.getValue());
+
+            switch (type) {
+                case "next":
+                    break;
+                case "time":
+                    if (value.equalsIgnoreCase("day")) {
+                        conditions.add((player, mob) -> isDay(mob.getWorld()));
+                    } else if (value.equalsIgnoreCase("night")) {
+                        conditions.add((player, mob) -> !isDay(mob.getWorld()));
+                    } else {
+                        logger.log(Level.WARNING, "Unknown time ''{0}'' in a branch of ''{1}'' (use day or night)", new Object[]{value, path});
+                        return null;
+                    }
+                    break;
+                case "holding":
+                    Material material;
+
+                    try {
+                        material = Material.valueOf(value.toUpperCase(Locale.ROOT));
+                    } catch (IllegalArgumentException exception) {
+                        logger.log(Level.WARNING, "Unknown material ''{0}'' in a branch of ''{1}''", new Object[]{value, path});
+                        return null;
+                    }
+
+                    conditions.add((player, mob) -> isHolding(player, material));
+                    break;
+                default:
+                    logger.log(Level.WARNING, "Unknown condition ''{0}'' in a branch of ''{1}''", new Object[]{type, path});
+                    return null;
+            }
+        }
+
+        return new Branch(conditions.toArray(new Condition[0]), resolve(branch.get("next"), names, path, logger));
+    }
+
+    private static int resolve(Object name, Map<String, Integer> names, String path, Logger logger) {
+        String stepName = String.valueOf(name);
+
+        if (stepName.equals(END_NAME)) {
+            return END;
+        }
+
+        Integer step = names.get(stepName);
+
+        if (step == null) {
+            logger.log(Level.WARNING, "Unknown step ''{0}'' in ''{1}'', ending the dialogue instead", new Object[]{stepName, path});
+            return END;
+        }
+
+        return step;
+    }
+
+    private static boolean isDay(World world) {
+        return world == null || world.getTime() % 24000 < 12000;
+    }
+
+    private static boolean isHolding(Player player, Material material) {
+        ItemStack item = player.getInventory().getItemInMainHand();
+
+        return item != null && item.getType() == material;
+    }
+
+    /**
+     * Get the step to say next (must be called on the main thread as the conditions access the player and the mob)
+     *
+     * @param previous The step said last time or {@link #END} to start the conversation
+     * @param player   The player talking to the mob
+     * @param mob      The mob
+     * @return The index of the step
+     */
+    int advance(int previous, Player player, Entity mob) {
+        if (previous < 0 || previous >= messages.length) {
+            return 0;
+        }
+
+        for (Branch branch : branches[previous]) {
+            if (branch.matches(player, mob)) {
+                return branch.step == END ? 0 : branch.step;
+            }
+        }
+
+        return next[previous] == END ? 0 : next[previous];
+    }
+
+    /**
+     * @param step The index of the step
+     * @return The message of the step or null if the step does not exist (e.g. after a reload removed steps)
+     */
+    MessageTemplate getMessage(int step) {
+        return step >= 0 && step < messages.length ? messages[step] : null;
+    }
+
+    /**
+     * @return The placeholders used by the messages of all steps
+     */
+    MessageTemplate.References getReferences() {
+        return references;
+    }
+}
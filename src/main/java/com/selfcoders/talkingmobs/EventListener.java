@@ -1,22 +1,24 @@
 package com.selfcoders.talkingmobs;
 
-import org.bukkit.Location;
 import org.bukkit.entity.AnimalTamer;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.CreatureSpawnEvent;
 import org.bukkit.event.entity.EntityDamageByEntityEvent;
 import org.bukkit.event.entity.EntityDeathEvent;
 import org.bukkit.event.entity.EntityTameEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerInteractEntityEvent;
-import org.bukkit.event.player.PlayerMoveEvent;
-import org.bukkit.util.Vector;
-
-import java.util.ArrayList;
-import java.util.List;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLocaleChangeEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
 
 /**
  * Class providing all event listeners required for the plugin
@@ -24,6 +26,7 @@ import java.util.List;
 class EventListener implements Listener {
     private final Message message;
     private final TalkingMobs plugin;
+    private final Metrics metrics;
 
     /**
      * Constructor of the class
@@ -33,140 +36,227 @@ class EventListener implements Listener {
     EventListener(Message messageInstance, TalkingMobs pluginInstance) {
         message = messageInstance;
         plugin = pluginInstance;
+        metrics = messageInstance.getMetrics();
     }
 
     @EventHandler
     public void onCreatureSpawn(CreatureSpawnEvent event) {
-        Entity entity = event.getEntity();
-        CreatureSpawnEvent.SpawnReason spawnReason = event.getSpawnReason();
-
-        List<String> allowedSpawnReasons = plugin.getConfig().getStringList("events.spawned");
+        long start = System.nanoTime();
 
-        if (allowedSpawnReasons.contains(spawnReason.name())) {
-            message.sendMessage(entity, Message.EventType.SPAWNED);
+        try {
+            if (plugin.getSettings().isEnabled(event.getSpawnReason())) {
+                message.sendMessage(event.getEntity(), Message.EventType.SPAWNED);
+            }
+        } finally {
+            metrics.handled(Metrics.Handler.CREATURE_SPAWN, start);
         }
     }
 
     @EventHandler
     public void onEntityAttacked(EntityDamageByEntityEvent event) {
-        if (!plugin.getConfig().getBoolean("events.attacked")) {
-            return;
-        }
+        long start = System.nanoTime();
 
-        Entity damager = event.getDamager();
-        Entity entity = event.getEntity();
+        try {
+            if (!plugin.getSettings().isEnabled(Message.EventType.ATTACKED)) {
+                return;
+            }
 
-        if (damager instanceof Player && !entity.isDead()) {
-            message.sendMessage(entity, (Player) damager, Message.EventType.ATTACKED);
+            Entity damager = event.getDamager();
+            Entity entity = event.getEntity();
+
+            if (damager instanceof Player && !entity.isDead()) {
+                message.sendMessage(entity, (Player) damager, Message.EventType.ATTACKED);
+            }
+        } finally {
+            metrics.handled(Metrics.Handler.ENTITY_ATTACKED, start);
         }
     }
 
     @EventHandler
     public void onEntityKilled(EntityDeathEvent event) {
-        LivingEntity entity = event.getEntity();
-        Player killer = entity.getKiller();
-
-        if (killer == null) {
-            if (!plugin.getConfig().getBoolean("events.killed_other")) {
-                return;
+        long start = System.nanoTime();
+
+        try {
+            LivingEntity entity = event.getEntity();
+            Player killer = entity.getKiller();
+
+            if (killer == null) {
+                if (plugin.getSettings().isEnabled(Message.EventType.KILLED_OTHER)) {
+                    message.sendMessage(entity, Message.EventType.KILLED_OTHER);
+                }
+            } else {
+                if (plugin.getSettings().isEnabled(Message.EventType.KILLED_PLAYER)) {
+                    message.sendMessage(entity, killer, Message.EventType.KILLED_PLAYER);
+                }
             }
 
-            List<Message.EventType> eventTypes = new ArrayList<>();
+            message.forget(entity);
 
-            eventTypes.add(Message.EventType.KILLED_OTHER);
-            eventTypes.add(Message.EventType.KILLED);
+            IdleChatter idleChatter = plugin.getIdleChatter();
 
-            message.sendMessage(entity, Message.EventType.KILLED_OTHER, eventTypes);
-        } else {
-            // events.killed is used till version 1.3 and is now deprecated
-            if (!plugin.getConfig().getBoolean("events.killed_player") && !plugin.getConfig().getBoolean("events.killed")) {
-                return;
+            if (idleChatter != null) {
+                idleChatter.forget(entity);
             }
-
-            List<Message.EventType> eventTypes = new ArrayList<>();
-
-            eventTypes.add(Message.EventType.KILLED_PLAYER);
-            eventTypes.add(Message.EventType.KILLED);
-
-            message.sendMessage(entity, killer, Message.EventType.KILLED_PLAYER, eventTypes);
+        } finally {
+            metrics.handled(Metrics.Handler.ENTITY_KILLED, start);
         }
     }
 
     @EventHandler
     public void onPlayerInteractEntity(PlayerInteractEntityEvent event) {
-        if (!plugin.getConfig().getBoolean("events.interacted")) {
-            return;
-        }
+        long start = System.nanoTime();
 
-        message.sendMessage(event.getRightClicked(), event.getPlayer(), Message.EventType.INTERACTED);
+        try {
+            if (!plugin.getSettings().isEnabled(Message.EventType.INTERACTED)) {
+                return;
+            }
+
+            message.sendMessage(event.getRightClicked(), event.getPlayer(), Message.EventType.INTERACTED);
+        } finally {
+            metrics.handled(Metrics.Handler.PLAYER_INTERACT_ENTITY, start);
+        }
     }
 
     @EventHandler
     public void onEntityTame(EntityTameEvent event) {
-        if (!plugin.getConfig().getBoolean("events.tamed")) {
-            return;
+        long start = System.nanoTime();
+
+        try {
+            if (!plugin.getSettings().isEnabled(Message.EventType.TAMED)) {
+                return;
+            }
+
+            AnimalTamer owner = event.getOwner();
+
+            if (!(owner instanceof Player)) {
+                return;
+            }
+
+            Player player = (Player) owner;
+
+            message.sendMessage(event.getEntity(), player, Message.EventType.TAMED);
+        } finally {
+            metrics.handled(Metrics.Handler.ENTITY_TAME, start);
         }
+    }
 
-        AnimalTamer owner = event.getOwner();
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        long start = System.nanoTime();
 
-        if (!(owner instanceof Player)) {
-            return;
+        try {
+            if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+                return;
+            }
+
+            plugin.getPreferenceStore().load(event.getUniqueId(), event.getName());
+        } finally {
+            metrics.handled(Metrics.Handler.PLAYER_PRE_LOGIN, start);
         }
+    }
 
-        Player player = (Player) owner;
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerLogin(PlayerLoginEvent event) {
+        long start = System.nanoTime();
 
-        message.sendMessage(event.getEntity(), player, Message.EventType.TAMED);
+        try {
+            // The toggles have been loaded on pre login, but no quit event follows if the login is denied afterwards
+            if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+                plugin.getPreferenceStore().unload(event.getPlayer());
+            }
+        } finally {
+            metrics.handled(Metrics.Handler.PLAYER_LOGIN, start);
+        }
     }
 
     @EventHandler
-    public void onPlayerMove(PlayerMoveEvent event) {
-        if (!plugin.getConfig().getBoolean("events.looking")) {
-            return;
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        long start = System.nanoTime();
+
+        try {
+            plugin.getPreferenceStore().loadLater(event.getPlayer());
+            plugin.getPlayerTracker().add(event.getPlayer());
+            plugin.getAudience().update(event.getPlayer());
+        } finally {
+            metrics.handled(Metrics.Handler.PLAYER_JOIN, start);
         }
+    }
 
-        Location location = event.getTo().clone();
-        Player player = event.getPlayer();
+    @EventHandler
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        long start = System.nanoTime();
 
-        List<Entity> nearbyEntities = event.getPlayer().getNearbyEntities(location.getX(), location.getY(), location.getZ());
+        try {
+            plugin.getAudience().update(event.getPlayer());
+        } finally {
+            metrics.handled(Metrics.Handler.PLAYER_CHANGED_WORLD, start);
+        }
+    }
 
-        for (Entity entity : nearbyEntities) {
-            if (!(entity instanceof LivingEntity)) {
-                continue;
-            }
+    @EventHandler
+    public void onPlayerLocaleChange(PlayerLocaleChangeEvent event) {
+        long start = System.nanoTime();
 
-            LivingEntity livingEntity = (LivingEntity) entity;
+        try {
+            TrackedPlayer trackedPlayer = plugin.getPlayerTracker().get(event.getPlayer());
 
-            if (!livingEntity.hasLineOfSight(player)) {
-                continue;
+            if (trackedPlayer != null) {
+                trackedPlayer.setLocale(event.getLocale());
+                message.evictUnusedLocales();
             }
+        } finally {
+            metrics.handled(Metrics.Handler.PLAYER_LOCALE_CHANGE, start);
+        }
+    }
+
+    @EventHandler
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        long start = System.nanoTime();
 
-            if (location.distance(entity.getLocation()) > plugin.getConfig().getDouble("max-looking-distance")) {
-                continue;
+        try {
+            Entity[] entities = event.getChunk().getEntities();
+
+            message.forget(entities);
+
+            // Do not save the armor stands of the holograms with the chunk (the pool drops removed armor stands)
+            for (Entity entity : entities) {
+                if (HologramPool.isHologram(entity)) {
+                    entity.remove();
+                }
             }
 
-            if (isEntityLookingAtEntity(livingEntity, player) && isEntityLookingAtEntity(player, livingEntity)) {
-                onEntityFacingPlayer(livingEntity, player);
+            IdleChatter idleChatter = plugin.getIdleChatter();
+
+            if (idleChatter != null) {
+                idleChatter.forget(entities);
             }
+        } finally {
+            metrics.handled(Metrics.Handler.CHUNK_UNLOAD, start);
         }
     }
 
-    private void onEntityFacingPlayer(LivingEntity entity, Player player) {
-        message.sendMessage(entity, player, Message.EventType.LOOKING);
-    }
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        long start = System.nanoTime();
 
-    /**
-     * Check whether the entity looks at the other entity
-     * Thanks to Mr.Midnight (https://www.spigotmc.org/threads/how-to-detect-an-entity-the-player-is-looking-at.139310/#post-1476341)
-     *
-     * @param entity      The entity
-     * @param otherEntity The other entity
-     * @return Whether the entity looks at the other entity
-     */
-    private boolean isEntityLookingAtEntity(LivingEntity entity, LivingEntity otherEntity) {
-        Location eye = entity.getEyeLocation();
-        Vector toEntity = otherEntity.getEyeLocation().toVector().subtract(eye.toVector());
-        double dot = toEntity.normalize().dot(eye.getDirection());
+        try {
+            message.forget(event.getPlayer());
+            plugin.getPreferenceStore().unload(event.getPlayer());
+
+            TrackedPlayer trackedPlayer = plugin.getPlayerTracker().remove(event.getPlayer());
+
+            if (trackedPlayer != null) {
+                plugin.getAudience().remove(trackedPlayer);
+                message.evictUnusedLocales();
+            }
 
-        return dot > 0.90D;
+            LookingDetector lookingDetector = plugin.getLookingDetector();
+
+            if (lookingDetector != null) {
+                lookingDetector.forget(event.getPlayer());
+            }
+        } finally {
+            metrics.handled(Metrics.Handler.PLAYER_QUIT, start);
+        }
     }
 }
\ No newline at end of file
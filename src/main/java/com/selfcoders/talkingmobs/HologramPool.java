@@ -0,0 +1,210 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Floating texts above the mobs, shown using invisible marker armor stands (must only be used on the main thread)
+ *
+ * Each mob shows at most one text at a time, a new message of the mob replaces the text of its armor stand. Once the
+ * text expired, the armor stand is hidden and kept for the next message instead of being removed, so busy areas do not
+ * spawn and remove an entity per message. The armor stands are tagged with {@link #TAG} and removed once their chunk is
+ * unloaded (see {@link #isHologram(Entity)}), so they are never kept in the saved worlds for long.
+ */
+class HologramPool {
+    /**
+     * The scoreboard tag of the armor stands used for the texts
+     */
+    static final String TAG = "talkingmobs-hologram";
+
+    // Used for the texts of mobs which are not valid anymore (the height of their eyes is unknown)
+    private static final double DEFAULT_EYE_HEIGHT = 1.5;
+
+    private final Map<UUID, Hologram> active = new HashMap<>();
+    private final Deque<ArmorStand> free = new ArrayDeque<>();
+    private final Location location = new Location(null, 0, 0, 0);
+    private long tick;
+
+    private static class Hologram {
+        private final ArmorStand armorStand;
+        private Entity mob;
+        private long expires;
+
+        private Hologram(ArmorStand armorStand) {
+            this.armorStand = armorStand;
+        }
+    }
+
+    /**
+     * Check whether the entity is an armor stand showing the texts of this plugin (including the ones left over from a
+     * previous run)
+     *
+     * @param entity The entity
+     * @return True if the entity is a hologram armor stand
+     */
+    static boolean isHologram(Entity entity) {
+        return entity instanceof ArmorStand && entity.getScoreboardTags().contains(TAG);
+    }
+
+    /**
+     * Show the text above the mob or at the location it was last seen (if the mob is not valid anymore, e.g. it died)
+     *
+     * @param mobId    The unique ID of the mob
+     * @param mob      The mob or null if it is not loaded anymore
+     * @param world    The world of the location used if the mob is not valid anymore
+     * @param x        The X coordinate of the location used if the mob is not valid anymore
+     * @param y        The Y coordinate of the location used if the mob is not valid anymore
+     * @param z        The Z coordinate of the location used if the mob is not valid anymore
+     * @param text     The text
+     * @param duration The number of ticks to show the text
+     * @param height   The distance between the eyes of the mob and the text
+     */
+    void show(UUID mobId, Entity mob, World world, double x, double y, double z, String text, long duration, double height) {
+        if (mob != null && mob.isValid()) {
+            setLocation(mob, height);
+        } else {
+            mob = null;
+
+            if (world == null) {
+                return;
+            }
+
+            location.setWorld(world);
+            location.setX(x);
+            location.setY(y + DEFAULT_EYE_HEIGHT + height);
+            location.setZ(z);
+        }
+
+        Hologram hologram = active.get(mobId);
+
+        if (hologram != null && (!hologram.armorStand.isValid() || hologram.armorStand.getWorld() != location.getWorld())) {
+            release(active.remove(mobId), 0);
+            hologram = null;
+        }
+
+        if (hologram == null) {
+            hologram = new Hologram(acquire(location));
+            active.put(mobId, hologram);
+        } else {
+            hologram.armorStand.teleport(location);
+        }
+
+        hologram.mob = mob;
+        hologram.expires = tick + duration;
+        hologram.armorStand.setCustomName(text);
+        hologram.armorStand.setCustomNameVisible(true);
+    }
+
+    /**
+     * Move the texts along with their mobs and hide the expired ones (called once per tick)
+     *
+     * @param height   The distance between the eyes of the mobs and the texts
+     * @param poolSize The maximum number of hidden armor stands to keep for later messages
+     */
+    void tick(double height, int poolSize) {
+        tick++;
+
+        Iterator<Hologram> iterator = active.values().iterator();
+
+        while (iterator.hasNext()) {
+            Hologram hologram = iterator.next();
+
+            if (hologram.expires <= tick || !hologram.armorStand.isValid()) {
+                iterator.remove();
+                release(hologram, poolSize);
+                continue;
+            }
+
+            if (hologram.mob != null) {
+                if (hologram.mob.isValid() && hologram.mob.getWorld() == hologram.armorStand.getWorld()) {
+                    setLocation(hologram.mob, height);
+                    hologram.armorStand.teleport(location);
+                } else {
+                    // Keep the text at the last location of the mob (e.g. once it died)
+                    hologram.mob = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all armor stands (e.g. once the plugin is disabled)
+     */
+    void clear() {
+        for (Hologram hologram : active.values()) {
+            hologram.armorStand.remove();
+        }
+
+        for (ArmorStand armorStand : free) {
+            armorStand.remove();
+        }
+
+        active.clear();
+        free.clear();
+    }
+
+    private void setLocation(Entity mob, double height) {
+        mob.getLocation(location);
+
+        if (mob instanceof LivingEntity) {
+            location.setY(location.getY() + ((LivingEntity) mob).getEyeHeight() + height);
+        } else {
+            location.setY(location.getY() + height);
+        }
+    }
+
+    private ArmorStand acquire(Location location) {
+        Iterator<ArmorStand> iterator = free.iterator();
+
+        while (iterator.hasNext()) {
+            ArmorStand armorStand = iterator.next();
+
+            if (!armorStand.isValid()) {
+                iterator.remove();
+            } else if (armorStand.getWorld() == location.getWorld()) {
+                iterator.remove();
+                armorStand.teleport(location);
+                return armorStand;
+            }
+        }
+
+        // Configure the armor stand before it is added to the world, so it is never shown as a visible armor stand
+        return location.getWorld().spawn(location, ArmorStand.class, armorStand -> {
+            armorStand.addScoreboardTag(TAG);
+            armorStand.setVisible(false);
+            armorStand.setMarker(true);
+            armorStand.setSmall(true);
+            armorStand.setBasePlate(false);
+            armorStand.setGravity(false);
+            armorStand.setInvulnerable(true);
+            armorStand.setSilent(true);
+        });
+    }
+
+    private void release(Hologram hologram, int poolSize) {
+        ArmorStand armorStand = hologram.armorStand;
+
+        if (!armorStand.isValid()) {
+            return;
+        }
+
+        if (free.size() >= poolSize) {
+            armorStand.remove();
+            return;
+        }
+
+        armorStand.setCustomNameVisible(false);
+        armorStand.setCustomName(null);
+        free.add(armorStand);
+    }
+}
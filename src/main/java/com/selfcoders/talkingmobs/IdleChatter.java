@@ -0,0 +1,147 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.entity.Creature;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Task letting mobs near players talk from time to time for the "idle" event
+ *
+ * Instead of polling all loaded mobs, the task is driven by the players receiving "idle" messages: each round visits
+ * all of those players once, spread over the ticks of the idle interval, and only checks the mobs within the idle radius
+ * of the visited players. The number of mobs checked per tick is limited by the idle budget, the remaining players are
+ * visited on the next tick. Each mob gets a random time for its next message, so mobs seen at the same time do not
+ * talk at once. The message of a mob is only sent to the visited player (not to all players like the other events), so
+ * busy areas do not fill the chat of the whole server. These times are kept in a {@link CooldownTable} and removed once the mob dies or its chunk is unloaded
+ * (or once the mob has not been near any player for a while).
+ */
+class IdleChatter extends BukkitRunnable {
+    private static final List<Message.EventType> IDLE_EVENT = Collections.singletonList(Message.EventType.IDLE);
+
+    private final Message message;
+    private final TalkingMobs plugin;
+    private final Audience audience;
+    private final CooldownTable nextMessages = new CooldownTable();
+    // The players of the current round (the task only runs on the main thread)
+    private final List<TrackedPlayer> round = new ArrayList<>();
+    private int cursor;
+    private long tick;
+    private long nextRound;
+
+    /**
+     * Constructor of the class
+     *
+     * @param messageInstance The instance of the Message class
+     * @param pluginInstance  The instance of this plugin
+     */
+    IdleChatter(Message messageInstance, TalkingMobs pluginInstance) {
+        message = messageInstance;
+        plugin = pluginInstance;
+        audience = pluginInstance.getAudience();
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+
+        try {
+            check();
+        } finally {
+            message.getMetrics().handled(Metrics.Handler.IDLE_CHECK, start);
+        }
+    }
+
+    private void check() {
+        Settings settings = plugin.getSettings();
+
+        tick++;
+
+        if (cursor >= round.size()) {
+            if (tick < nextRound) {
+                return;
+            }
+
+            round.clear();
+            round.addAll(audience.get(Message.EventType.IDLE));
+            cursor = 0;
+            nextRound = tick + settings.getIdleInterval();
+        }
+
+        // Spread the players over the interval, but do not exceed the budget if many mobs are around
+        int players = (int) Math.max(1, (round.size() + settings.getIdleInterval() - 1) / settings.getIdleInterval());
+        int budget = settings.getIdleBudget();
+        long now = System.currentTimeMillis();
+
+        while (cursor < round.size() && players > 0 && budget > 0) {
+            Player player = round.get(cursor++).getPlayer();
+            players--;
+
+            if (player.isOnline()) {
+                budget -= check(player, settings, now);
+            }
+        }
+    }
+
+    /**
+     * Check the mobs around the player and let the mobs talk whose time has come
+     *
+     * @return The number of checked mobs
+     */
+    private int check(Player player, Settings settings, long now) {
+        double radius = settings.getIdleRadius();
+        long maxDelay = settings.getIdleMaxDelay();
+        // The times of mobs which have not been near any player for twice the maximum delay expire (but never before the
+        // mob is checked again, otherwise a maximum delay of 0 would reset the time on each check and the mob never talks)
+        long timeout = Math.max(maxDelay, settings.getIdleInterval() * 50) * 2;
+        int checked = 0;
+
+        for (Entity entity : player.getNearbyEntities(radius, radius, radius)) {
+            if (!(entity instanceof LivingEntity) || entity instanceof Player) {
+                continue;
+            }
+
+            checked++;
+
+            // Mobs targeting another entity are not idle
+            if (entity instanceof Creature && ((Creature) entity).getTarget() != null) {
+                continue;
+            }
+
+            // The mob is also used as player, so removing other entities never matches this key
+            long key = CooldownTable.key(entity.getEntityId(), entity.getEntityId(), Message.EventType.IDLE);
+            long nextMessage = nextMessages.get(key, now, timeout);
+
+            if (nextMessage == 0) {
+                // Seen for the first time: spread the first messages over the whole delay
+                nextMessages.put(key, now, timeout, now + ThreadLocalRandom.current().nextLong(maxDelay + 1));
+            } else if (now >= nextMessage) {
+                message.sendMessage(entity, player, Message.EventType.IDLE, IDLE_EVENT);
+                nextMessages.put(key, now, timeout, now + ThreadLocalRandom.current().nextLong(settings.getIdleMinDelay(), maxDelay + 1));
+            }
+        }
+
+        return checked;
+    }
+
+    /**
+     * Forget the time of the next message of the given entities (e.g. once the mob died or its chunk has been unloaded)
+     *
+     * @param entities The mobs
+     */
+    void forget(Entity... entities) {
+        int[] entityIds = new int[entities.length];
+
+        for (int index = 0; index < entities.length; index++) {
+            entityIds[index] = entities[index].getEntityId();
+        }
+
+        nextMessages.remove(entityIds);
+    }
+}
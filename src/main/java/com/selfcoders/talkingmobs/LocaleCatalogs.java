@@ -0,0 +1,202 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.EntityType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+/**
+ * Message catalogs of the locales having their own messages file (e.g. messages_de.yml for all German locales or
+ * messages_de_at.yml for Austrian German only)
+ *
+ * A catalog is compiled the first time a message is rendered for a player using its locale (on the worker threads) and
+ * evicted once no online player uses the locale anymore. The messages of a locale file (including its "default" section)
+ * take precedence, only the mob types and event types without any messages in the locale file are taken from
+ * messages.yml. Locales without a messages file use the default catalog.
+ */
+class LocaleCatalogs {
+    private static final EntityType[] ENTITY_TYPES = EntityType.values();
+    private static final Message.EventType[] EVENT_TYPES = Message.EventType.values();
+    // The locale is sent by the client, so anything else (e.g. containing a path) is never used to build a file name
+    private static final Pattern LOCALE = Pattern.compile("[a-z]{2,3}(_[a-z0-9]{2,8})?");
+
+    private final TalkingMobs plugin;
+    private final Supplier<MessageCatalog> defaultCatalog;
+    // An empty optional means that the locale uses the default catalog
+    private final Map<String, Optional<MessageCatalog>> catalogs = new ConcurrentHashMap<>();
+    // Incremented once a catalog has been added or evicted, so the cached references are computed again
+    private final AtomicInteger modifications = new AtomicInteger();
+    private volatile References references;
+
+    /**
+     * The placeholders used by the default catalog and the compiled catalogs of the locales per entity type and event
+     * type
+     */
+    private static class References {
+        private final MessageCatalog defaultCatalog;
+        private final int modifications;
+        private final MessageTemplate.References[] references;
+
+        private References(MessageCatalog defaultCatalog, int modifications, MessageTemplate.References[] references) {
+            this.defaultCatalog = defaultCatalog;
+            this.modifications = modifications;
+            this.references = references;
+        }
+    }
+
+    /**
+     * Constructor of the class
+     *
+     * @param pluginInstance       The instance of this plugin
+     * @param defaultCatalogGetter The function returning the current default catalog
+     */
+    LocaleCatalogs(TalkingMobs pluginInstance, Supplier<MessageCatalog> defaultCatalogGetter) {
+        plugin = pluginInstance;
+        defaultCatalog = defaultCatalogGetter;
+    }
+
+    /**
+     * Get the catalog of the locale, compiling it if it is not cached yet (may be called from any thread)
+     *
+     * @param locale The locale of the player (e.g. de_de, might be null)
+     * @return The catalog of the locale or the default catalog if there is no messages file for the locale (or the
+     * locale is invalid)
+     */
+    MessageCatalog get(String locale) {
+        if (locale == null || locale.isEmpty()) {
+            return defaultCatalog.get();
+        }
+
+        Optional<MessageCatalog> catalog = catalogs.get(locale);
+
+        if (catalog == null) {
+            // Invalid locales are not cached, so they can not fill the cache either
+            if (!LOCALE.matcher(locale).matches()) {
+                return defaultCatalog.get();
+            }
+
+            catalog = catalogs.computeIfAbsent(locale, this::compile);
+
+            if (catalog.isPresent()) {
+                modifications.incrementAndGet();
+            }
+        }
+
+        return catalog.isPresent() ? catalog.get() : defaultCatalog.get();
+    }
+
+    /**
+     * Get the placeholders used by the messages of the default catalog and the currently compiled catalogs of the
+     * locales (a locale compiled after capturing the values of a message renders its additional placeholders empty)
+     *
+     * The union is computed for all entity types and event types once a catalog has been added or evicted and cached
+     * till the next change.
+     *
+     * @param entityType The type of the mob
+     * @param eventType  The event type of the messages
+     * @return The used placeholders
+     */
+    MessageTemplate.References getReferences(EntityType entityType, Message.EventType eventType) {
+        MessageCatalog currentCatalog = defaultCatalog.get();
+
+        if (catalogs.isEmpty()) {
+            return currentCatalog.getReferences(entityType, eventType);
+        }
+
+        References cached = references;
+        int currentModifications = modifications.get();
+
+        if (cached == null || cached.defaultCatalog != currentCatalog || cached.modifications != currentModifications) {
+            cached = new References(currentCatalog, currentModifications, union(currentCatalog));
+            references = cached;
+        }
+
+        return cached.references[entityType.ordinal() * EVENT_TYPES.length + eventType.ordinal()];
+    }
+
+    private MessageTemplate.References[] union(MessageCatalog currentCatalog) {
+        MessageTemplate.References[] union = new MessageTemplate.References[ENTITY_TYPES.length * EVENT_TYPES.length];
+
+        for (EntityType entityType : ENTITY_TYPES) {
+            for (Message.EventType eventType : EVENT_TYPES) {
+                MessageTemplate.References used = currentCatalog.getReferences(entityType, eventType);
+
+                for (Optional<MessageCatalog> catalog : catalogs.values()) {
+                    if (catalog.isPresent()) {
+                        used = used.union(catalog.get().getReferences(entityType, eventType));
+                    }
+                }
+
+                union[entityType.ordinal() * EVENT_TYPES.length + eventType.ordinal()] = used;
+            }
+        }
+
+        return union;
+    }
+
+    /**
+     * Evict the catalogs of the locales not used by any of the given players (must be called on the main thread)
+     *
+     * @param players The online players
+     */
+    void retain(Collection<TrackedPlayer> players) {
+        if (catalogs.isEmpty()) {
+            return;
+        }
+
+        Set<String> locales = new HashSet<>();
+
+        for (TrackedPlayer player : players) {
+            locales.add(player.getLocale());
+        }
+
+        if (catalogs.keySet().retainAll(locales)) {
+            modifications.incrementAndGet();
+        }
+    }
+
+    /**
+     * Evict all catalogs (e.g. once a messages file or the message formats have been changed)
+     */
+    void clear() {
+        catalogs.clear();
+        modifications.incrementAndGet();
+    }
+
+    private Optional<MessageCatalog> compile(String locale) {
+        File file = new File(plugin.getDataFolder(), "messages_" + locale + ".yml");
+        int separator = locale.indexOf('_');
+
+        if (!file.exists() && separator > 0) {
+            file = new File(plugin.getDataFolder(), "messages_" + locale.substring(0, separator) + ".yml");
+        }
+
+        if (!file.exists()) {
+            return Optional.empty();
+        }
+
+        try {
+            YamlConfiguration config = Config.parse(plugin, file);
+
+            plugin.getLogger().log(Level.INFO, "Loaded {0} for locale {1}", new Object[]{file.getName(), locale});
+
+            return Optional.of(MessageCatalog.compileLocale(config, plugin.getConfig(), plugin.getLogger(), defaultCatalog.get()));
+        } catch (IOException | InvalidConfigurationException exception) {
+            plugin.getLogger().log(Level.WARNING, "Could not load {0}, using messages.yml for locale {1}: {2}", new Object[]{file.getName(), locale, exception.getMessage()});
+
+            return Optional.empty();
+        }
+    }
+}
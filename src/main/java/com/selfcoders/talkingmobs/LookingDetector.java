@@ -0,0 +1,188 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Task detecting mobs looking at players (and players looking at mobs) for the "looking" event
+ *
+ * The task runs on a fixed tick interval instead of on each move of a player. Players who did not move or rotate their
+ * head since the last run are skipped. For all others, only the entities within the max-looking-distance are checked,
+ * starting with the cheap checks (distance and facing) before doing the line of sight check. The distance and facing
+ * checks only use primitive values (no Location or Vector is allocated per pair and no square root is taken).
+ */
+class LookingDetector extends BukkitRunnable {
+    /**
+     * The minimum cosine of the angle between the view direction and the direction to the other entity
+     */
+    private static final double FACING_THRESHOLD = 0.90D;
+    private static final double FACING_THRESHOLD_SQUARED = FACING_THRESHOLD * FACING_THRESHOLD;
+
+    private final Message message;
+    private final TalkingMobs plugin;
+    private final Map<UUID, double[]> lastEyeLocations = new HashMap<>();
+    // Reused for each player and mob (the task only runs on the main thread)
+    private final Location playerLocation = new Location(null, 0, 0, 0);
+    private final Location mobLocation = new Location(null, 0, 0, 0);
+    private final double[] playerDirection = new double[3];
+    private final double[] mobDirection = new double[3];
+
+    /**
+     * Constructor of the class
+     *
+     * @param messageInstance The instance of the Message class
+     * @param pluginInstance  The instance of this plugin
+     */
+    LookingDetector(Message messageInstance, TalkingMobs pluginInstance) {
+        message = messageInstance;
+        plugin = pluginInstance;
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+
+        try {
+            check();
+        } finally {
+            message.getMetrics().handled(Metrics.Handler.LOOKING_CHECK, start);
+        }
+    }
+
+    private void check() {
+        double maxDistance = plugin.getSettings().getMaxLookingDistance();
+        double maxDistanceSquared = maxDistance * maxDistance;
+
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            player.getLocation(playerLocation);
+
+            double eyeX = playerLocation.getX();
+            double eyeY = playerLocation.getY() + player.getEyeHeight();
+            double eyeZ = playerLocation.getZ();
+
+            if (!hasMoved(player, eyeX, eyeY, eyeZ, playerLocation.getYaw(), playerLocation.getPitch())) {
+                continue;
+            }
+
+            setDirection(playerDirection, playerLocation.getYaw(), playerLocation.getPitch());
+
+            // getNearbyEntities only returns entities in the world of the player
+            for (Entity entity : player.getNearbyEntities(maxDistance, maxDistance, maxDistance)) {
+                if (!(entity instanceof LivingEntity) || entity instanceof Player) {
+                    continue;
+                }
+
+                LivingEntity livingEntity = (LivingEntity) entity;
+                livingEntity.getLocation(mobLocation);
+
+                double dx = mobLocation.getX() - eyeX;
+                double dy = mobLocation.getY() + livingEntity.getEyeHeight() - eyeY;
+                double dz = mobLocation.getZ() - eyeZ;
+                double distanceSquared = dx * dx + dy * dy + dz * dz;
+
+                // Written as !(a <= b) to also skip invalid (NaN) locations
+                if (!(distanceSquared <= maxDistanceSquared) || distanceSquared == 0) {
+                    continue;
+                }
+
+                if (!isFacing(playerDirection, dx, dy, dz, distanceSquared)) {
+                    continue;
+                }
+
+                setDirection(mobDirection, mobLocation.getYaw(), mobLocation.getPitch());
+
+                if (!isFacing(mobDirection, -dx, -dy, -dz, distanceSquared)) {
+                    continue;
+                }
+
+                if (!livingEntity.hasLineOfSight(player)) {
+                    continue;
+                }
+
+                message.sendMessage(livingEntity, player, Message.EventType.LOOKING);
+            }
+        }
+    }
+
+    /**
+     * Forget the last known eye location of the player (e.g. once the player left the server)
+     *
+     * @param player The player
+     */
+    void forget(Player player) {
+        lastEyeLocations.remove(player.getUniqueId());
+    }
+
+    /**
+     * Check whether the player moved or rotated the head since the last check and remember the current eye location
+     *
+     * @param player The player
+     * @param x      The x coordinate of the eyes of the player
+     * @param y      The y coordinate of the eyes of the player
+     * @param z      The z coordinate of the eyes of the player
+     * @param yaw    The yaw of the head of the player
+     * @param pitch  The pitch of the head of the player
+     * @return True if the player moved or rotated the head, false otherwise
+     */
+    private boolean hasMoved(Player player, double x, double y, double z, float yaw, float pitch) {
+        double[] last = lastEyeLocations.get(player.getUniqueId());
+
+        if (last == null) {
+            last = new double[5];
+            lastEyeLocations.put(player.getUniqueId(), last);
+        } else if (last[0] == x && last[1] == y && last[2] == z && last[3] == yaw && last[4] == pitch) {
+            return false;
+        }
+
+        last[0] = x;
+        last[1] = y;
+        last[2] = z;
+        last[3] = yaw;
+        last[4] = pitch;
+
+        return true;
+    }
+
+    /**
+     * Calculate the normalized view direction from the rotation (same as {@link Location#getDirection()})
+     *
+     * @param direction The array receiving the x, y and z components
+     * @param yaw       The yaw in degrees
+     * @param pitch     The pitch in degrees
+     */
+    private static void setDirection(double[] direction, float yaw, float pitch) {
+        double yawRadians = Math.toRadians(yaw);
+        double pitchRadians = Math.toRadians(pitch);
+        double xz = Math.cos(pitchRadians);
+
+        direction[0] = -xz * Math.sin(yawRadians);
+        direction[1] = -Math.sin(pitchRadians);
+        direction[2] = xz * Math.cos(yawRadians);
+    }
+
+    /**
+     * Check whether the view direction points to the other entity
+     * Thanks to Mr.Midnight (https://www.spigotmc.org/threads/how-to-detect-an-entity-the-player-is-looking-at.139310/#post-1476341)
+     *
+     * The cosine of the angle (dot / distance) is compared squared to avoid the square root and the division.
+     *
+     * @param direction       The normalized view direction
+     * @param dx              The x distance to the other entity
+     * @param dy              The y distance to the other entity
+     * @param dz              The z distance to the other entity
+     * @param distanceSquared The squared distance to the other entity
+     * @return Whether the view direction points to the other entity
+     */
+    private static boolean isFacing(double[] direction, double dx, double dy, double dz, double distanceSquared) {
+        double dot = dx * direction[0] + dy * direction[1] + dz * direction[2];
+
+        return dot > 0 && dot * dot > FACING_THRESHOLD_SQUARED * distanceSquared;
+    }
+}
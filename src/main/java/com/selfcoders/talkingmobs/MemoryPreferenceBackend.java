@@ -0,0 +1,41 @@
+package com.selfcoders.talkingmobs;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Preference storage keeping the toggles in memory only (used for testing)
+ */
+class MemoryPreferenceBackend implements PreferenceBackend {
+    private final Map<UUID, PreferenceStore.Preferences> preferences = new HashMap<>();
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public PreferenceStore.Preferences load(UUID uuid, String name) {
+        return preferences.get(uuid);
+    }
+
+    @Override
+    public void save(Collection<PreferenceStore.Preferences> changedPreferences) {
+        for (PreferenceStore.Preferences playerPreferences : changedPreferences) {
+            preferences.put(playerPreferences.getUniqueId(), playerPreferences);
+        }
+    }
+
+    @Override
+    public int forEach(Consumer<PreferenceStore.Preferences> consumer) {
+        preferences.values().forEach(consumer);
+
+        return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -1,23 +1,47 @@
 package com.selfcoders.talkingmobs;
 
-import org.bukkit.ChatColor;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 
 /**
  * Class providing methods to send mob messages to players
+ *
+ * The public methods (except for reloadConfig) may be called from any thread. The spam timeouts and message histories
+ * are stored in striped tables, the message catalogs are immutable and swapped at once and the player toggles are kept
+ * in a concurrent cache. Reading the state of mobs and permissions of players is handed over to the main thread.
  */
 public class Message {
     private final TalkingMobs plugin;
     private final Config messagesConfig;
-    private final Config playersConfig;
-    private HashMap<String, Long> lastMessage = new HashMap<>();
+    private final PreferenceStore preferences;
+    private final PlayerTracker playerTracker;
+    private final Audience audience;
+    private final MessagePipeline pipeline;
+    private final Metrics metrics;
+    private final StripedCooldownTable lastMessage = new StripedCooldownTable();
+    private final SelectionHistory history = new SelectionHistory();
+    // The step said last (plus 1) per mob, player and event type
+    private final StripedCooldownTable conversations = new StripedCooldownTable();
+    private final LocaleCatalogs localeCatalogs;
+    private final RateLimiter rateLimiter = new RateLimiter();
+    private final BurstCoalescer coalescer = new BurstCoalescer();
+    private final Map<String, PlaceholderResolver> placeholderResolvers = new ConcurrentHashMap<>();
+    private volatile MessageCatalog catalog;
 
     /**
      * Possible event types
@@ -28,7 +52,7 @@ public class Message {
          */
         ATTACKED("attacked", true),
         /**
-         * Mob is idle (Is just standing/walking/running around) -> Unused
+         * Mob is idle (Is just standing/walking/running around near a player)
          */
         IDLE("idle", true),
         /**
@@ -42,11 +66,11 @@ public class Message {
         /**
          * Mob has been killed by a player
          */
-        KILLED_PLAYER("killed_player", true),
+        KILLED_PLAYER("killed_player", true, KILLED),
         /**
          * Mob has been killed by something else (not a player)
          */
-        KILLED_OTHER("killed_other", true),
+        KILLED_OTHER("killed_other", true, KILLED),
         /**
          * Mob is looking at the player (and player is looking at the mob)
          */
@@ -62,10 +86,16 @@ public class Message {
 
         private String type;
         private boolean toggleable;
+        private EventType fallback;
 
         EventType(String type, boolean toggleable) {
+            this(type, toggleable, null);
+        }
+
+        EventType(String type, boolean toggleable, EventType fallback) {
             this.type = type;
             this.toggleable = toggleable;
+            this.fallback = fallback;
         }
 
         public String getType() {
@@ -76,6 +106,13 @@ public class Message {
             return toggleable;
         }
 
+        /**
+         * @return The event type to use if no messages are defined for this event type or null if there is none
+         */
+        public EventType getFallback() {
+            return fallback;
+        }
+
         public static EventType fromString(String type) {
             for (EventType eventType : values()) {
                 if (eventType.getType().equalsIgnoreCase(type)) {
@@ -87,94 +124,221 @@ public class Message {
         }
     }
 
+    /**
+     * The messages picked and rendered for a single request (used by the worker processing it)
+     *
+     * The message of the default catalog is picked once per request and each catalog (locale) renders its message once,
+     * the rendered message is shared by all recipients using the catalog.
+     */
+    private static class Selection {
+        private final Map<MessageCatalog, MessageTemplate.PreparedMessage> messages = new IdentityHashMap<>();
+        private boolean picked;
+        private MessageCatalog.Entry entry;
+        private int index;
+    }
+
     /**
      * Initialize the message class
      *
-     * @param pluginInstance The instance of this plugin ('this' in TalkingMobs class)
+     * @param pluginInstance  The instance of this plugin ('this' in TalkingMobs class)
+     * @param preferenceStore The store containing the per player toggles
+     * @param tracker         The registry of the online players
+     * @param audienceSets    The players which may receive messages of each event type
      */
-    Message(TalkingMobs pluginInstance) {
+    Message(TalkingMobs pluginInstance, PreferenceStore preferenceStore, PlayerTracker tracker, Audience audienceSets) {
         plugin = pluginInstance;
+        preferences = preferenceStore;
+        playerTracker = tracker;
+        audience = audienceSets;
+        metrics = new Metrics(this::getSpamTimeoutCount, preferences::size);
+        pipeline = new MessagePipeline(plugin, metrics, this::process);
 
         messagesConfig = new Config(plugin, "messages.yml");
-        playersConfig = new Config(plugin, "players.yml");
+        localeCatalogs = new LocaleCatalogs(plugin, () -> catalog);
     }
 
     /**
      * Reload the messages
      */
     public void reloadConfig() {
-        messagesConfig.reload();
-        playersConfig.reload();
+        synchronized (messagesConfig) {
+            messagesConfig.reload();
+
+            catalog = MessageCatalog.compile(messagesConfig.getConfig(), plugin.getConfig(), plugin.getLogger(), catalog);
+            localeCatalogs.clear();
+        }
+
+        applyConfig(plugin.getConfig());
     }
 
     /**
-     * Get a list of messages configured for the specified mob and event type
+     * Parse messages.yml and swap in the changed messages (called off the main thread by the {@link ConfigWatcher})
      *
-     * @param mob       The entity of the mob for which the messages should be fetched
-     * @param eventType The event type of the messages
-     * @return A list of messages or null if there a none
+     * @throws IOException                   If messages.yml could not be read
+     * @throws InvalidConfigurationException If messages.yml is not valid YAML (the active messages are kept)
      */
-    private List<String> getMessages(Entity mob, EventType eventType) {
-        List<String> messages;
-        String mobTypeName = mob.getType().name().toLowerCase();
+    void reloadMessages() throws IOException, InvalidConfigurationException {
+        YamlConfiguration config = messagesConfig.parse();
 
-        messages = messagesConfig.getConfig().getStringList(mobTypeName + "." + eventType.getType());
-        if (messages.size() == 0) {
-            messages = messagesConfig.getConfig().getStringList("default." + eventType.getType());
+        synchronized (messagesConfig) {
+            MessageCatalog previous = catalog;
+            MessageCatalog compiled = MessageCatalog.compile(config, plugin.getConfig(), plugin.getLogger(), previous);
 
-            if (messages.size() == 0) {
-                return null;
-            }
-        }
+            messagesConfig.set(config);
+            catalog = compiled;
+            localeCatalogs.clear();
 
-        return messages;
+            plugin.getLogger().log(Level.INFO, "Reloaded messages.yml ({0} changed entries)", compiled.countChanges(previous));
+        }
     }
 
     /**
-     * Get a random message for the specified mob and event type
+     * Compile the message formats of the given configuration (called off the main thread by the {@link ConfigWatcher})
      *
-     * @param mob       The entity of the mob for which the message should be fetched
-     * @param eventType The event type of the message
-     * @return A string containing the message
+     * @param pluginConfig The new plugin configuration
      */
-    private String getMessage(Entity mob, EventType eventType) {
-        String mobTypeName = mob.getType().name().toLowerCase();
-
-        List<String> messages = getMessages(mob, eventType);
-
-        if (messages == null) {
-            plugin.getLogger().log(Level.INFO, "No messages for event ''{0}'' of mob ''{1}'' defined!", new Object[]{eventType.getType(), mobTypeName});
-            return null;
+    void reloadFormats(ConfigurationSection pluginConfig) {
+        synchronized (messagesConfig) {
+            catalog = MessageCatalog.compile(messagesConfig.getConfig(), pluginConfig, plugin.getLogger(), catalog);
+            localeCatalogs.clear();
         }
+    }
 
-        Random randomGenerator = new Random();
+    /**
+     * Evict the compiled messages of all locales, so they are compiled again once they are used (e.g. after one of the
+     * locale specific messages files has been changed)
+     */
+    void reloadLocales() {
+        localeCatalogs.clear();
+    }
 
-        String message = plugin.getConfig().getString("messageFormat." + eventType.getType());
+    /**
+     * Evict the compiled messages of the locales no online player is using anymore (must be called on the main thread)
+     */
+    void evictUnusedLocales() {
+        localeCatalogs.retain(playerTracker.getAll());
+    }
 
-        if (message == null) {
-            message = plugin.getConfig().getString("messageFormat.default");
+    /**
+     * Apply the rate limits and the burst merging of the configuration (must be called on the main thread)
+     *
+     * @param pluginConfig The plugin configuration
+     */
+    void applyConfig(ConfigurationSection pluginConfig) {
+        coalescer.configure(pluginConfig.getConfigurationSection("coalesce"));
 
-            if (message == null) {
-                message = "[&a%mobname%&r] %message%";
-                plugin.getLogger().log(Level.INFO, "Message format for event type ''{0}'' not defined!", eventType.getType());
-            }
+        if (rateLimiter.configure(pluginConfig.getConfigurationSection("rate-limit")) == null) {
+            plugin.getLogger().log(Level.WARNING, "Unknown rate limit policy ''{0}'', dropping messages exceeding the limits", pluginConfig.getString("rate-limit.policy"));
         }
+    }
 
-        message = message.replaceAll("%message%", messages.get(randomGenerator.nextInt(messages.size())));
-        message = message.replaceAll("%mobname%", mobTypeName);
-        message = message.replaceAll("%event%", eventType.getType());
+    /**
+     * Register the resolver of a placeholder of another plugin (see {@link TalkingMobs#registerPlaceholder})
+     *
+     * @param name     The name of the placeholder without the % signs
+     * @param resolver The resolver
+     */
+    void registerPlaceholder(String name, PlaceholderResolver resolver) {
+        placeholderResolvers.put(name, resolver);
+    }
+
+    /**
+     * Remove the resolver of a placeholder of another plugin
+     *
+     * @param name The name of the placeholder without the % signs
+     */
+    void unregisterPlaceholder(String name) {
+        placeholderResolvers.remove(name);
+    }
 
-        return message;
+    /**
+     * Get the pipeline processing the messages off the main thread
+     *
+     * @return The message pipeline
+     */
+    MessagePipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Get the counters and latency histograms of the event handlers and the message pipeline
+     *
+     * @return The metrics
+     */
+    Metrics getMetrics() {
+        return metrics;
     }
 
     /**
-     * Check whether the player has the permission to receive mob messages
+     * Get a random message of the default messages for the specified mob and event type
      *
-     * @param player The player which should be checked
-     * @return True if the player has the permission, false otherwise
+     * @param request The request containing the mob and event type
+     * @return The message prepared for formatting it for each recipient or null if there are no messages
      */
-    private boolean isAllowed(Player player) {
-        return player.hasPermission(Permission.RECEIVE.permission());
+    MessageTemplate.PreparedMessage getMessage(MessageRequest request) {
+        return getMessage(request, catalog, new Selection());
+    }
+
+    /**
+     * Get a random message of the catalog for the specified mob and event type
+     *
+     * The recently picked messages are only tracked for the messages of the default catalog, which are picked once per
+     * request. Locales using the same messages (e.g. as they have none for the mob) use the same message, locales with
+     * their own messages pick one of them using their own weights.
+     *
+     * @param request        The request containing the mob and event type
+     * @param messageCatalog The catalog (default or of a locale)
+     * @param selection      The messages already picked for the request
+     * @return The message prepared for formatting it for each recipient or null if there are no messages
+     */
+    private MessageTemplate.PreparedMessage getMessage(MessageRequest request, MessageCatalog messageCatalog, Selection selection) {
+        long start = System.nanoTime();
+        String mobTypeName = MessageCatalog.getMobName(request.getEntityType());
+
+        if (request.getDialogueStep() != Dialogue.END) {
+            Dialogue dialogue = messageCatalog.getDialogue(request.getEntityType(), request.getMessageEventType());
+            MessageTemplate step = dialogue == null ? null : dialogue.getMessage(request.getDialogueStep());
+
+            // The dialogue might have been changed by a reload, fall back to a random message in that case
+            if (step != null) {
+                long selected = System.nanoTime();
+                metrics.selected(request.getEventType(), selected - start);
+
+                MessageTemplate.PreparedMessage preparedMessage = messageCatalog.getFormat(request.getMessageEventType()).prepare(step, mobTypeName, request.getMessageEventType().getType(), request.getPlaceholders());
+                metrics.formatted(request.getEventType(), System.nanoTime() - selected);
+
+                return preparedMessage;
+            }
+        }
+
+        MessageCatalog.Entry entry = messageCatalog.get(request.getEntityType(), request.getMessageEventType());
+
+        if (entry == null) {
+            plugin.getLogger().log(Level.INFO, "No messages for event ''{0}'' of mob ''{1}'' defined!", new Object[]{request.getMessageEventType().getType(), mobTypeName});
+            return null;
+        }
+
+        if (!selection.picked) {
+            selection.picked = true;
+            selection.entry = catalog.get(request.getEntityType(), request.getMessageEventType());
+
+            if (selection.entry != null) {
+                TrackedPlayer recipient = request.getRecipient();
+                selection.index = history.select(selection.entry, request.getMobId(), recipient == null ? SelectionHistory.BROADCAST : recipient.getEntityId(), plugin.getSettings().getAvoidRepeats());
+            }
+        }
+
+        int index = entry == selection.entry ? selection.index : entry.select(0, ThreadLocalRandom.current());
+
+        MessageTemplate message = entry.getMessages()[index];
+
+        long selected = System.nanoTime();
+        metrics.selected(request.getEventType(), selected - start);
+
+        MessageTemplate.PreparedMessage preparedMessage = entry.getFormat().prepare(message, mobTypeName, entry.getEventType().getType(), request.getPlaceholders());
+        metrics.formatted(request.getEventType(), System.nanoTime() - selected);
+
+        return preparedMessage;
     }
 
     /**
@@ -185,12 +349,9 @@ public class Message {
      * @return True if talking mobs of the specified type is enabled, false otherwise
      */
     public boolean isEnabled(Player player, EventType eventType) {
-        // Check if all has been disabled
-        if (!isEnabled(player)) {
-            return false;
-        }
+        PreferenceStore.Preferences playerPreferences = preferences.get(player);
 
-        return playersConfig.getConfig().getBoolean(player.getName() + ".enabled." + eventType.getType(), true);
+        return playerPreferences == null || playerPreferences.isEnabled(eventType);
     }
 
     /**
@@ -200,36 +361,75 @@ public class Message {
      * @return True if talking mobs is enabled, false otherwise
      */
     public boolean isEnabled(Player player) {
-        return playersConfig.getConfig().getBoolean(player.getName() + ".enabled.all", true);
+        PreferenceStore.Preferences playerPreferences = preferences.get(player);
+
+        return playerPreferences == null || playerPreferences.isEnabled();
     }
 
-    private boolean isSpamming(Entity mob, Player player, EventType eventType) {
-        String key = String.valueOf(mob.getEntityId()) + "/" + String.valueOf(player.getEntityId()) + "/" + eventType.getType();
-        Long now = System.currentTimeMillis();
-        Long spamTimeout = plugin.getConfig().getLong("spam-timeout");
+    private boolean isSpamming(int mobId, TrackedPlayer player, EventType eventType) {
+        long key = CooldownTable.key(mobId, player.getEntityId(), eventType);
 
-        Long previousMessage = lastMessage.get(key);
+        return lastMessage.touch(key, System.currentTimeMillis(), plugin.getSettings().getSpamTimeout());
+    }
 
-        if (previousMessage == null || now - previousMessage > spamTimeout) {
-            lastMessage.put(key, now);
-            return false;
-        } else {
-            lastMessage.put(key, now);
-            return true;
+    /**
+     * Forget the spam timeouts, recently picked messages and dialogues of the given entity (e.g. once the mob died or
+     * the player left the server)
+     *
+     * @param entity The mob or player
+     */
+    public void forget(Entity entity) {
+        int[] entityIds = new int[]{entity.getEntityId()};
+
+        lastMessage.remove(entityIds);
+        history.remove(entityIds);
+        conversations.remove(entityIds);
+
+        if (entity instanceof Player) {
+            TrackedPlayer trackedPlayer = playerTracker.get((Player) entity);
+
+            if (trackedPlayer != null) {
+                rateLimiter.remove(trackedPlayer);
+            }
         }
     }
 
     /**
-     * Format the message and send it to the player
-     * Formatting includes replacing %player% with the name of the player and translating color codes.
+     * Forget the spam timeouts, recently picked messages and dialogues of the given entities (e.g. once the chunk
+     * containing them has been unloaded)
      *
-     * @param player  The player which should receive the message
-     * @param message The message to send
+     * @param entities The mobs or players
      */
-    private void sendFormattedMessage(Player player, String message) {
-        String formattedMessage = message.replaceAll("%player%", player.getName());
-        formattedMessage = ChatColor.translateAlternateColorCodes('&', formattedMessage);
-        player.sendMessage(formattedMessage);
+    public void forget(Entity[] entities) {
+        int[] entityIds = new int[entities.length];
+
+        for (int index = 0; index < entities.length; index++) {
+            entityIds[index] = entities[index].getEntityId();
+        }
+
+        lastMessage.remove(entityIds);
+        history.remove(entityIds);
+        conversations.remove(entityIds);
+    }
+
+    /**
+     * Get the number of currently tracked spam timeouts
+     *
+     * @return The number of entries of the spam timeout table
+     */
+    public int getSpamTimeoutCount() {
+        return lastMessage.size();
+    }
+
+    /**
+     * Check whether the mob is able to talk (only living entities except for players and the armor stands of the
+     * holograms)
+     *
+     * @param mob The entity
+     * @return True if the entity is a mob, false otherwise
+     */
+    private boolean isMob(Entity mob) {
+        return mob instanceof LivingEntity && !(mob instanceof Player) && !HologramPool.isHologram(mob);
     }
 
     /**
@@ -240,13 +440,7 @@ public class Message {
      * @param eventType The event type
      */
     public void sendMessage(Entity mob, Player player, EventType eventType) {
-        String message = getMessage(mob, eventType);
-
-        if (message == null) {
-            return;
-        }
-
-        sendMessage(mob, player, eventType, message);
+        sendMessage(mob, player, eventType, eventType);
     }
 
     /**
@@ -258,15 +452,10 @@ public class Message {
      * @param possibleEventTypes The event types of which to pick the first possible one for getting the message
      */
     public void sendMessage(Entity mob, Player player, EventType originalEventType, List<EventType> possibleEventTypes) {
-        for (EventType eventType : possibleEventTypes) {
-            if (getMessages(mob, eventType) == null) {
-                continue;
-            }
+        EventType eventType = getPossibleEventType(mob, possibleEventTypes);
 
-            String message = getMessage(mob, eventType);
-
-            sendMessage(mob, player, originalEventType, message);
-            return;
+        if (eventType != null) {
+            sendMessage(mob, player, originalEventType, eventType);
         }
     }
 
@@ -277,22 +466,7 @@ public class Message {
      * @param eventType The event type
      */
     public void sendMessage(Entity mob, EventType eventType) {
-        if (mob instanceof Player) {
-            return;
-        }
-
-        if (!(mob instanceof LivingEntity)) {
-            return;
-        }
-
-        String message = getMessage(mob, eventType);
-        if (message == null) {
-            return;
-        }
-
-        for (Player player : plugin.getServer().getOnlinePlayers()) {
-            sendMessage(mob, player, eventType, message);
-        }
+        sendMessage(mob, null, eventType, eventType);
     }
 
     /**
@@ -303,68 +477,343 @@ public class Message {
      * @param possibleEventTypes The event types of which to pick the first possible one for getting the message
      */
     public void sendMessage(Entity mob, EventType originalEventType, List<EventType> possibleEventTypes) {
-        if (mob instanceof Player) {
+        EventType eventType = getPossibleEventType(mob, possibleEventTypes);
+
+        if (eventType != null) {
+            sendMessage(mob, null, originalEventType, eventType);
+        }
+    }
+
+    private EventType getPossibleEventType(Entity mob, List<EventType> possibleEventTypes) {
+        for (EventType eventType : possibleEventTypes) {
+            if (catalog.get(mob.getType(), eventType) != null) {
+                return eventType;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Capture the state of the mob and queue the message for being processed off the main thread
+     *
+     * @param mob              The mob which sends the message
+     * @param player           The player which should receive the message or null to send it to all players
+     * @param eventType        The event type which triggered the message
+     * @param messageEventType The event type used to pick the message
+     */
+    private void sendMessage(Entity mob, Player player, EventType eventType, EventType messageEventType) {
+        if (!isMob(mob)) {
             return;
         }
 
-        if (!(mob instanceof LivingEntity)) {
+        if (!plugin.getServer().isPrimaryThread()) {
+            runOnMainThread(() -> sendMessage(mob, player, eventType, messageEventType));
             return;
         }
 
-        for (EventType eventType : possibleEventTypes) {
-            if (getMessages(mob, eventType) == null) {
-                continue;
+        metrics.received(eventType);
+
+        TrackedPlayer recipient = null;
+
+        if (player != null) {
+            recipient = playerTracker.get(player);
+
+            // Not tracked yet (e.g. the join event has not been handled) or already untracked (e.g. the player quit)
+            if (recipient == null) {
+                metrics.dropped(eventType, Metrics.DropReason.UNTRACKED);
+                return;
             }
 
-            String message = getMessage(mob, eventType);
+            if (!audience.get(eventType).contains(recipient)) {
+                metrics.dropped(eventType, isEnabled(player, eventType) ? Metrics.DropReason.NO_PERMISSION : Metrics.DropReason.DISABLED);
+                return;
+            }
+        }
+
+        int dialogueStep = Dialogue.END;
+        Dialogue dialogue = recipient == null ? null : catalog.getDialogue(mob.getType(), messageEventType);
 
-            for (Player player : plugin.getServer().getOnlinePlayers()) {
-                sendMessage(mob, player, originalEventType, message);
+        if (dialogue != null) {
+            // Check the spam timeout before advancing, otherwise the dropped step would be skipped
+            if (isSpamming(mob.getEntityId(), recipient, eventType)) {
+                metrics.dropped(eventType, Metrics.DropReason.SPAM);
+                return;
             }
 
-            return;
+            dialogueStep = advanceDialogue(dialogue, mob, player, messageEventType);
+        }
+
+        // Only the placeholders used by the messages which might be picked are captured
+        PlaceholderValues placeholders = PlaceholderValues.capture(mob, eventType, localeCatalogs.getReferences(mob.getType(), messageEventType), placeholderResolvers, plugin.getLogger());
+        MessageRequest request = new MessageRequest(mob, eventType, messageEventType, recipient, dialogueStep, placeholders);
+
+        if (recipient != null || !coalescer.add(request)) {
+            pipeline.submit(request);
         }
     }
 
     /**
-     * Send the given mob message to the player
+     * Get the next step of the dialogue between the mob and the player and remember it (called on the main thread)
      *
-     * @param mob       The mob which sends the message
-     * @param player    The player which should receive the message
-     * @param eventType The event type
-     * @param message   The message to send
+     * @param dialogue  The dialogue
+     * @param mob       The mob
+     * @param player    The player
+     * @param eventType The event type of the dialogue
+     * @return The index of the step
      */
-    private void sendMessage(Entity mob, Player player, EventType eventType, String message) {
-        if (mob instanceof Player) {
+    private int advanceDialogue(Dialogue dialogue, Entity mob, Player player, EventType eventType) {
+        long key = CooldownTable.key(mob.getEntityId(), player.getEntityId(), eventType);
+        long now = System.currentTimeMillis();
+        long timeout = plugin.getSettings().getDialogueTimeout();
+        int step = dialogue.advance((int) conversations.get(key, now, timeout) - 1, player, mob);
+
+        conversations.put(key, now, timeout, step + 1);
+
+        return step;
+    }
+
+    /**
+     * Queue the broadcasts collected by the burst coalescer once its window ended (called on the main thread once per tick)
+     */
+    void flushBursts() {
+        coalescer.tick(request -> {
+            if (request.getCount() > 1) {
+                metrics.dropped(request.getEventType(), Metrics.DropReason.COALESCED, request.getCount() - 1);
+            }
+
+            pipeline.submit(request);
+        });
+    }
+
+    /**
+     * Pick and render the message of the request and queue it for all recipients (called on the worker threads)
+     *
+     * @param request The request
+     */
+    void process(MessageRequest request) {
+        if (plugin.getSettings().getChannel(request.getEventType()) == DeliveryChannel.HOLOGRAM) {
+            processHologram(request);
             return;
         }
 
-        if (!(mob instanceof LivingEntity)) {
-            return;
+        // The messages are only collected for the events of the API if another plugin listens to them
+        MessagePipeline.Batch batch = MessagePipeline.Batch.create(request);
+
+        process(request, batch);
+
+        if (batch != null) {
+            pipeline.deliver(batch);
         }
+    }
+
+    private void process(MessageRequest request, MessagePipeline.Batch batch) {
+        Selection selection = new Selection();
 
-        if (!isAllowed(player)) {
+        forEachRecipient(request, player -> sendIfInRange(request, player, selection, batch));
+    }
+
+    /**
+     * Render the text of a hologram once and queue it if at least one recipient would receive the message
+     *
+     * The text is shown to all players near the mob, so it is rendered using the default messages and %player% is
+     * rendered empty. The events of the API are not called for holograms.
+     *
+     * @param request The request
+     */
+    private void processHologram(MessageRequest request) {
+        EventType eventType = request.getEventType();
+        int viewers = forEachRecipient(request, player -> {
+            if (!isInRange(request, player)) {
+                metrics.dropped(eventType, Metrics.DropReason.DISTANCE);
+                return false;
+            }
+
+            return acquire(request, player);
+        });
+
+        if (viewers == 0) {
             return;
         }
 
-        if (!isEnabled(player, eventType)) {
+        MessageTemplate.PreparedMessage message = getMessage(request);
+
+        if (message == null) {
+            metrics.dropped(eventType, Metrics.DropReason.NO_MESSAGES, viewers);
             return;
         }
 
-        if (isSpamming(mob, player, eventType)) {
-            return;
+        long start = System.nanoTime();
+        String text = message.format("");
+
+        if (request.getCount() > 1) {
+            text = coalescer.format(text, request.getCount());
         }
 
-        double maxDistance = plugin.getConfig().getDouble("maxDistance");
+        metrics.formatted(eventType, System.nanoTime() - start);
+
+        metrics.rendered(eventType, viewers);
+        pipeline.show(request, text, viewers);
+    }
 
+    /**
+     * Pass the players which should receive the message of the request to the action
+     *
+     * @param request The request
+     * @param action  The action called for each player allowed to receive messages of the event type (returns whether
+     *                the message has been queued for the player)
+     * @return The number of players for which the message has been queued
+     */
+    private int forEachRecipient(MessageRequest request, Predicate<TrackedPlayer> action) {
+        TrackedPlayer recipient = request.getRecipient();
+        Set<TrackedPlayer> players = audience.get(request.getEventType());
+
+        if (recipient != null) {
+            return players.contains(recipient) && action.test(recipient) ? 1 : 0;
+        }
+
+        int[] count = new int[1];
+        double maxDistance = plugin.getSettings().getMaxDistance();
+
+        // Only visit the players in the regions around the mob if the distance is limited
         if (maxDistance > 0) {
-            double distance = player.getLocation().distance(mob.getLocation());
-            if (distance != Double.NaN && distance <= maxDistance) {
-                sendFormattedMessage(player, message);
+            playerTracker.getIndex().forEachNearby(request.getWorldId(), request.getX(), request.getZ(), maxDistance, player -> {
+                if (players.contains(player) && action.test(player)) {
+                    count[0]++;
+                }
+            });
+        } else {
+            for (TrackedPlayer player : players) {
+                if (action.test(player)) {
+                    count[0]++;
+                }
             }
+        }
+
+        return count[0];
+    }
+
+    private boolean sendIfInRange(MessageRequest request, TrackedPlayer player, Selection selection, MessagePipeline.Batch batch) {
+        if (!isInRange(request, player)) {
+            metrics.dropped(request.getEventType(), Metrics.DropReason.DISTANCE);
+            return false;
+        }
+
+        MessageCatalog playerCatalog = localeCatalogs.get(player.getLocale());
+        MessageTemplate.PreparedMessage message = selection.messages.get(playerCatalog);
+
+        if (message == null && !selection.messages.containsKey(playerCatalog)) {
+            message = getMessage(request, playerCatalog, selection);
+            selection.messages.put(playerCatalog, message);
+
+            if (message == null) {
+                metrics.dropped(request.getEventType(), Metrics.DropReason.NO_MESSAGES);
+            }
+        }
+
+        return message != null && send(request, player, message, batch);
+    }
+
+    /**
+     * Check whether the player is in the same world as the mob and within the maximum distance
+     *
+     * @param request The request containing the location of the mob
+     * @param player  The player
+     * @return True if the player should receive messages of the mob, false otherwise
+     */
+    private boolean isInRange(MessageRequest request, TrackedPlayer player) {
+        double distance = plugin.getSettings().getMaxDistance();
+
+        if (distance <= 0) {
+            return true;
+        }
+
+        TrackedPlayer.Position position = player.getPosition();
+
+        if (position == null) {
+            return false;
+        }
+
+        UUID worldId = position.getWorldId();
+
+        if (worldId == null || !worldId.equals(request.getWorldId())) {
+            return false;
+        }
+
+        double dx = position.getX() - request.getX();
+        double dy = position.getY() - request.getY();
+        double dz = position.getZ() - request.getZ();
+
+        return dx * dx + dy * dy + dz * dz <= distance * distance;
+    }
+
+    /**
+     * Format the message and queue it for being sent to the player if there is no spam timeout and the rate limits are
+     * not exceeded
+     * Formatting replaces %player% with the name of the player (color codes are already translated).
+     *
+     * @param request The request
+     * @param player  The player which should receive the message
+     * @param message The message to send
+     * @param batch   The batch collecting the messages for the events of the API (null to queue them directly)
+     * @return True if the message has been queued, false if it has been dropped
+     */
+    private boolean send(MessageRequest request, TrackedPlayer player, MessageTemplate.PreparedMessage message, MessagePipeline.Batch batch) {
+        EventType eventType = request.getEventType();
+
+        if (!acquire(request, player)) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        String formattedMessage = message.format(player.getName());
+
+        if (request.getCount() > 1) {
+            formattedMessage = coalescer.format(formattedMessage, request.getCount());
+        }
+
+        metrics.formatted(eventType, System.nanoTime() - start);
+
+        metrics.rendered(eventType);
+
+        if (batch != null) {
+            batch.add(player, formattedMessage);
         } else {
-            sendFormattedMessage(player, message);
+            pipeline.deliver(player, request, formattedMessage);
         }
+
+        return true;
+    }
+
+    /**
+     * Check the spam timeout and the rate limits of the player
+     *
+     * @param request The request
+     * @param player  The player which should receive the message
+     * @return True if the message may be sent to the player, false if it has been dropped
+     */
+    private boolean acquire(MessageRequest request, TrackedPlayer player) {
+        EventType eventType = request.getEventType();
+
+        // The spam timeout of dialogues has already been checked before advancing the dialogue
+        if (request.getDialogueStep() == Dialogue.END && isSpamming(request.getMobId(), player, eventType)) {
+            metrics.dropped(eventType, Metrics.DropReason.SPAM);
+            return false;
+        }
+
+        if (!rateLimiter.tryAcquire(player, eventType, request.getEntityType())) {
+            metrics.dropped(eventType, Metrics.DropReason.RATE_LIMIT);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Send the summaries of the messages dropped due to the rate limits (if the rate limit policy is "coalesce")
+     */
+    void sendRateLimitSummaries() {
+        rateLimiter.flushSummaries(pipeline::deliver);
     }
 
     /**
@@ -375,10 +824,8 @@ public class Message {
      * @param state     The new state
      */
     public void setEnabled(Player player, EventType eventType, Boolean state) {
-        playersConfig.getConfig().set(player.getName() + ".enabled." + eventType.getType(), state);
-        playersConfig.getConfig().set(player.getName() + ".enabled.all", true);
-
-        playersConfig.save();
+        preferences.setEnabled(player, eventType, state);
+        updateAudience(player);
     }
 
     /**
@@ -388,16 +835,22 @@ public class Message {
      * @param state  The new state
      */
     public void setEnabled(Player player, Boolean state) {
-        playersConfig.getConfig().set(player.getName() + ".enabled.all", state);
-
-        for (EventType eventType : EventType.values()) {
-            if (!eventType.isToggleable()) {
-                continue;
-            }
+        preferences.setEnabled(player, state);
+        updateAudience(player);
+    }
 
-            playersConfig.getConfig().set(player.getName() + ".enabled." + eventType.getType(), state);
+    private void updateAudience(Player player) {
+        if (plugin.getServer().isPrimaryThread()) {
+            audience.update(player);
+        } else {
+            runOnMainThread(() -> audience.update(player));
         }
+    }
 
-        playersConfig.save();
+    private void runOnMainThread(Runnable runnable) {
+        // Tasks can not be scheduled while the plugin is disabled
+        if (plugin.isEnabled()) {
+            plugin.getServer().getScheduler().runTask(plugin, runnable);
+        }
     }
-}
\ No newline at end of file
+}
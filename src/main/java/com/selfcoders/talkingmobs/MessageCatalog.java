@@ -0,0 +1,425 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.EntityType;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Immutable table of the messages defined in messages.yml, indexed by entity type and event type
+ *
+ * Messages and message formats are stored as parsed templates. The fallback to the "default" section and the fallback
+ * chain of the event types (e.g. killed_player -> killed) are resolved while compiling, so looking up the messages for
+ * an event is a single array access. Messages may be defined as plain strings or as maps with a message and a weight.
+ * The dialogues of the mobs are compiled into {@link Dialogue} graphs stored the same way. The placeholders used by
+ * the messages of each entity type and event type are collected as well, so only their values have to be captured.
+ *
+ * When recompiling, the entries and formats of the previous catalog whose definitions did not change are reused, so a
+ * reload only parses the changed messages and keeps the state bound to the unchanged entries.
+ */
+class MessageCatalog {
+    private static final EntityType[] ENTITY_TYPES = EntityType.values();
+    private static final Message.EventType[] EVENT_TYPES = Message.EventType.values();
+    private static final String[] MOB_NAMES = new String[ENTITY_TYPES.length];
+    private static final String DEFAULT_FORMAT = "[&a%mobname%&r] %message%";
+
+    static {
+        for (EntityType entityType : ENTITY_TYPES) {
+            MOB_NAMES[entityType.ordinal()] = entityType.name().toLowerCase();
+        }
+    }
+
+    private final Entry[] entries;
+    private final Dialogue[] dialogues;
+    private final MessageTemplate.References[] references;
+    private final String[] formatSources;
+    private final MessageTemplate[] formats;
+
+    /**
+     * The resolved messages for a single entity type and event type
+     */
+    static class Entry {
+        private final Message.EventType eventType;
+        private final List<?> source;
+        private final MessageTemplate[] messages;
+        private final int[] cumulativeWeights;
+        private final MessageTemplate format;
+        private final MessageTemplate.References references;
+
+        private Entry(Message.EventType eventType, List<?> source, MessageTemplate[] messages, int[] weights, MessageTemplate format) {
+            this.eventType = eventType;
+            this.source = source;
+            this.messages = messages;
+            this.format = format;
+
+            MessageTemplate.References messageReferences = format.getReferences();
+
+            for (MessageTemplate message : messages) {
+                messageReferences = messageReferences.union(message.getReferences());
+            }
+
+            references = messageReferences;
+
+            cumulativeWeights = new int[weights.length];
+
+            int sum = 0;
+
+            for (int index = 0; index < weights.length; index++) {
+                sum += weights[index];
+                cumulativeWeights[index] = sum;
+            }
+        }
+
+        /**
+         * @return The event type the messages have been defined for (might be a fallback of the requested event type)
+         */
+        Message.EventType getEventType() {
+            return eventType;
+        }
+
+        /**
+         * @return The message templates (never empty)
+         */
+        MessageTemplate[] getMessages() {
+            return messages;
+        }
+
+        /**
+         * Pick a random message index according to the weights of the messages
+         *
+         * The excluded messages (e.g. the recently picked ones) are skipped by picking from the total weight of the
+         * remaining messages and shifting the picked value over the weights of the excluded messages, followed by a
+         * binary search in the cumulative weights. Nothing is allocated.
+         *
+         * @param excluded The indices of the messages to skip (see {@link SelectionHistory}), must leave at least one
+         *                 message
+         * @param random   The random source
+         * @return The index of the picked message
+         */
+        int select(long excluded, Random random) {
+            int count = SelectionHistory.size(excluded);
+            int total = cumulativeWeights[cumulativeWeights.length - 1];
+
+            for (int slot = 0; slot < count; slot++) {
+                total -= weight(SelectionHistory.get(excluded, slot));
+            }
+
+            int value = random.nextInt(total);
+            int previous = -1;
+
+            // Shift over the excluded messages in ascending order
+            for (int step = 0; step < count; step++) {
+                int next = Integer.MAX_VALUE;
+
+                for (int slot = 0; slot < count; slot++) {
+                    int index = SelectionHistory.get(excluded, slot);
+
+                    if (index > previous && index < next) {
+                        next = index;
+                    }
+                }
+
+                if (value >= cumulativeWeights[next] - weight(next)) {
+                    value += weight(next);
+                }
+
+                previous = next;
+            }
+
+            int low = 0;
+            int high = cumulativeWeights.length - 1;
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (cumulativeWeights[middle] > value) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+
+            return low;
+        }
+
+        private int weight(int index) {
+            return index == 0 ? cumulativeWeights[0] : cumulativeWeights[index] - cumulativeWeights[index - 1];
+        }
+
+        /**
+         * @return The message format to use for the messages of this entry
+         */
+        MessageTemplate getFormat() {
+            return format;
+        }
+
+        /**
+         * @return The placeholders used by the message format and all messages of this entry
+         */
+        MessageTemplate.References getReferences() {
+            return references;
+        }
+    }
+
+    private MessageCatalog(Entry[] entries, Dialogue[] dialogues, MessageTemplate.References[] references, String[] formatSources, MessageTemplate[] formats) {
+        this.entries = entries;
+        this.dialogues = dialogues;
+        this.references = references;
+        this.formatSources = formatSources;
+        this.formats = formats;
+    }
+
+    /**
+     * Compile the messages of the given configuration into a new catalog
+     *
+     * @param config       The configuration containing the messages (messages.yml)
+     * @param pluginConfig The plugin configuration containing the message formats (config.yml)
+     * @param logger       The logger used to report missing message formats
+     * @return The compiled catalog
+     */
+    static MessageCatalog compile(ConfigurationSection config, ConfigurationSection pluginConfig, Logger logger) {
+        return compile(config, pluginConfig, logger, null);
+    }
+
+    /**
+     * Compile the messages of the given configuration into a new catalog, reusing the unchanged entries of the previous
+     * catalog
+     *
+     * @param config       The configuration containing the messages (messages.yml)
+     * @param pluginConfig The plugin configuration containing the message formats (config.yml)
+     * @param logger       The logger used to report missing message formats
+     * @param previous     The previous catalog (might be null)
+     * @return The compiled catalog
+     */
+    static MessageCatalog compile(ConfigurationSection config, ConfigurationSection pluginConfig, Logger logger, MessageCatalog previous) {
+        return compile(config, pluginConfig, logger, previous, null);
+    }
+
+    /**
+     * Compile the messages of a locale, using the entries of the fallback catalog for the entity types and event types
+     * without any messages in the locale (including its "default" section)
+     *
+     * @param config       The configuration containing the messages of the locale (e.g. messages_de.yml)
+     * @param pluginConfig The plugin configuration containing the message formats (config.yml)
+     * @param logger       The logger used to report missing message formats
+     * @param fallback     The catalog of messages.yml
+     * @return The compiled catalog
+     */
+    static MessageCatalog compileLocale(ConfigurationSection config, ConfigurationSection pluginConfig, Logger logger, MessageCatalog fallback) {
+        return compile(config, pluginConfig, logger, null, fallback);
+    }
+
+    private static MessageCatalog compile(ConfigurationSection config, ConfigurationSection pluginConfig, Logger logger, MessageCatalog previous, MessageCatalog fallback) {
+        String[] formatSources = new String[EVENT_TYPES.length];
+        MessageTemplate[] formats = new MessageTemplate[EVENT_TYPES.length];
+
+        for (Message.EventType eventType : EVENT_TYPES) {
+            int index = eventType.ordinal();
+
+            formatSources[index] = getFormat(pluginConfig, eventType, logger);
+
+            if (previous != null && previous.formatSources[index].equals(formatSources[index])) {
+                formats[index] = previous.formats[index];
+            } else {
+                formats[index] = MessageTemplate.parse(formatSources[index]);
+            }
+        }
+
+        Entry[] entries = new Entry[ENTITY_TYPES.length * EVENT_TYPES.length];
+        Dialogue[] dialogues = new Dialogue[entries.length];
+        MessageTemplate.References[] references = new MessageTemplate.References[entries.length];
+        Map<String, Dialogue> compiledDialogues = new HashMap<>();
+
+        for (EntityType entityType : ENTITY_TYPES) {
+            for (Message.EventType eventType : EVENT_TYPES) {
+                int index = index(entityType, eventType);
+
+                entries[index] = resolve(config, formats, getMobName(entityType), eventType, logger, previous == null ? null : previous.entries[index]);
+                dialogues[index] = resolveDialogue(config, getMobName(entityType), eventType, logger, compiledDialogues);
+
+                if (fallback != null && entries[index] == null) {
+                    entries[index] = fallback.entries[index];
+                }
+
+                if (fallback != null && dialogues[index] == null) {
+                    dialogues[index] = fallback.dialogues[index];
+                }
+
+                MessageTemplate.References used = entries[index] == null ? MessageTemplate.References.NONE : entries[index].getReferences();
+
+                if (dialogues[index] != null) {
+                    used = used.union(formats[eventType.ordinal()].getReferences()).union(dialogues[index].getReferences());
+                }
+
+                references[index] = used;
+            }
+        }
+
+        return new MessageCatalog(entries, dialogues, references, formatSources, formats);
+    }
+
+    /**
+     * Count the entries which differ from the given catalog (e.g. to report the changes of a reload)
+     *
+     * @param other The other catalog (might be null)
+     * @return The number of entries which have been compiled again or added or removed
+     */
+    int countChanges(MessageCatalog other) {
+        int changes = 0;
+
+        for (int index = 0; index < entries.length; index++) {
+            if (other == null || entries[index] != other.entries[index]) {
+                changes++;
+            }
+        }
+
+        return changes;
+    }
+
+    private static String getFormat(ConfigurationSection pluginConfig, Message.EventType eventType, Logger logger) {
+        String format = pluginConfig.getString("messageFormat." + eventType.getType());
+
+        if (format == null) {
+            format = pluginConfig.getString("messageFormat.default");
+
+            if (format == null) {
+                format = DEFAULT_FORMAT;
+                logger.log(Level.INFO, "Message format for event type ''{0}'' not defined!", eventType.getType());
+            }
+        }
+
+        return format;
+    }
+
+    private static Entry resolve(ConfigurationSection config, MessageTemplate[] formats, String mobTypeName, Message.EventType eventType, Logger logger, Entry previous) {
+        for (Message.EventType type = eventType; type != null; type = type.getFallback()) {
+            String path = mobTypeName + "." + type.getType();
+            List<?> messages = config.getList(path);
+            if (messages == null || messages.isEmpty()) {
+                path = "default." + type.getType();
+                messages = config.getList(path);
+            }
+
+            if (messages != null && !messages.isEmpty()) {
+                if (previous != null && previous.eventType == type && previous.format == formats[type.ordinal()] && previous.source.equals(messages)) {
+                    return previous;
+                }
+
+                int count = Math.min(messages.size(), SelectionHistory.MAX_MESSAGES);
+                MessageTemplate[] templates = new MessageTemplate[count];
+                int[] weights = new int[count];
+
+                for (int index = 0; index < count; index++) {
+                    Object message = messages.get(index);
+                    int weight = 1;
+
+                    if (message instanceof Map) {
+                        Map<?, ?> map = (Map<?, ?>) message;
+                        Object weightValue = map.get("weight");
+
+                        message = map.get("message");
+
+                        if (weightValue instanceof Number && ((Number) weightValue).intValue() > 0) {
+                            weight = ((Number) weightValue).intValue();
+                        } else if (weightValue != null) {
+                            logger.log(Level.WARNING, "Invalid weight ''{0}'' of message {1} in ''{2}'', using 1", new Object[]{weightValue, index + 1, path});
+                        }
+                    }
+
+                    if (message == null) {
+                        logger.log(Level.WARNING, "Message {0} in ''{1}'' has no text", new Object[]{index + 1, path});
+                        message = "";
+                    }
+
+                    templates[index] = MessageTemplate.parse(String.valueOf(message));
+                    weights[index] = weight;
+                }
+
+                return new Entry(type, messages, templates, weights, formats[type.ordinal()]);
+            }
+        }
+
+        return null;
+    }
+
+    private static Dialogue resolveDialogue(ConfigurationSection config, String mobTypeName, Message.EventType eventType, Logger logger, Map<String, Dialogue> compiledDialogues) {
+        String path = mobTypeName + ".dialogue." + eventType.getType();
+
+        if (!config.isList(path)) {
+            path = "default.dialogue." + eventType.getType();
+
+            if (!config.isList(path)) {
+                return null;
+            }
+        }
+
+        // The default dialogues are shared by all mobs (and only compiled once)
+        if (!compiledDialogues.containsKey(path)) {
+            compiledDialogues.put(path, Dialogue.compile(config, path, logger));
+        }
+
+        return compiledDialogues.get(path);
+    }
+
+    /**
+     * Get the name of the mob used in messages and messages.yml
+     *
+     * @param entityType The type of the mob
+     * @return The lower case name of the entity type
+     */
+    static String getMobName(EntityType entityType) {
+        return MOB_NAMES[entityType.ordinal()];
+    }
+
+    private static int index(EntityType entityType, Message.EventType eventType) {
+        return entityType.ordinal() * EVENT_TYPES.length + eventType.ordinal();
+    }
+
+    /**
+     * Get the messages configured for the specified entity type and event type
+     *
+     * @param entityType The type of the mob
+     * @param eventType  The event type of the messages
+     * @return The resolved entry or null if there are no messages
+     */
+    Entry get(EntityType entityType, Message.EventType eventType) {
+        return entries[index(entityType, eventType)];
+    }
+
+    /**
+     * Get the dialogue configured for the specified entity type and event type
+     *
+     * @param entityType The type of the mob
+     * @param eventType  The event type advancing the dialogue
+     * @return The dialogue or null if there is no dialogue
+     */
+    Dialogue getDialogue(EntityType entityType, Message.EventType eventType) {
+        return dialogues[index(entityType, eventType)];
+    }
+
+    /**
+     * Get the placeholders used by the messages and dialogue configured for the specified entity type and event type
+     *
+     * @param entityType The type of the mob
+     * @param eventType  The event type of the messages
+     * @return The used placeholders
+     */
+    MessageTemplate.References getReferences(EntityType entityType, Message.EventType eventType) {
+        return references[index(entityType, eventType)];
+    }
+
+    /**
+     * Get the message format of the event type
+     *
+     * @param eventType The event type
+     * @return The parsed message format
+     */
+    MessageTemplate getFormat(Message.EventType eventType) {
+        return formats[eventType.ordinal()];
+    }
+}
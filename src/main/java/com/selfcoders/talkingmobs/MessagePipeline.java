@@ -0,0 +1,382 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Pipeline processing message requests off the main thread
+ *
+ * Event handlers only capture a {@link MessageRequest} and submit it to a bounded queue. A pool of worker threads picks
+ * and renders the messages and applies the toggles and spam timeouts. The rendered messages are delivered to the
+ * players by a single task running on the main thread once per tick, using the {@link DeliveryChannels} configured for
+ * their event types.
+ *
+ * If other plugins listen to the {@link TalkingMobMessageEvent} or {@link TalkingMobBroadcastEvent}, the messages of a
+ * request are collected in a {@link Batch} and the events are called before delivering them. Whether there are
+ * listeners is only checked once per request, without listeners no event is created.
+ */
+class MessagePipeline {
+    private final TalkingMobs plugin;
+    private final Metrics metrics;
+    private final Consumer<MessageRequest> processor;
+    private final Queue<Delivery> deliveries = new ConcurrentLinkedQueue<>();
+    private final DeliveryChannels channels;
+    private ThreadPoolExecutor executor;
+    private BukkitTask deliveryTask;
+
+    /**
+     * What to do with new requests if the queue is full
+     */
+    enum OverflowPolicy {
+        /**
+         * Drop the new request
+         */
+        DROP_NEWEST(new ThreadPoolExecutor.DiscardPolicy()),
+        /**
+         * Drop the oldest queued request and queue the new one
+         */
+        DROP_OLDEST(new ThreadPoolExecutor.DiscardOldestPolicy()),
+        /**
+         * Process the new request on the thread submitting it (usually the main thread)
+         */
+        CALLER_RUNS(new ThreadPoolExecutor.CallerRunsPolicy());
+
+        private final RejectedExecutionHandler handler;
+
+        OverflowPolicy(RejectedExecutionHandler handler) {
+            this.handler = handler;
+        }
+
+        static OverflowPolicy fromString(String policy) {
+            for (OverflowPolicy overflowPolicy : values()) {
+                if (overflowPolicy.name().replace('_', '-').equalsIgnoreCase(policy)) {
+                    return overflowPolicy;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * A rendered message waiting for being sent to a player (or a batch of messages or the text of a hologram)
+     */
+    private static class Delivery {
+        private final TrackedPlayer recipient;
+        private final MessageRequest request;
+        private final String message;
+        private final Batch batch;
+        private final int viewers;
+
+        private Delivery(TrackedPlayer recipient, MessageRequest request, String message) {
+            this.recipient = recipient;
+            this.request = request;
+            this.message = message;
+            this.batch = null;
+            this.viewers = 0;
+        }
+
+        private Delivery(Batch batch) {
+            this.recipient = null;
+            this.request = null;
+            this.message = null;
+            this.batch = batch;
+            this.viewers = 0;
+        }
+
+        private Delivery(MessageRequest request, String message, int viewers) {
+            this.recipient = null;
+            this.request = request;
+            this.message = message;
+            this.batch = null;
+            this.viewers = viewers;
+        }
+    }
+
+    /**
+     * The rendered messages of a single request, collected by a worker thread for calling the events of the API
+     */
+    static class Batch {
+        private final MessageRequest request;
+        private final boolean broadcastEvent;
+        private final boolean messageEvent;
+        private final List<TrackedPlayer> recipients = new ArrayList<>();
+        private final List<String> messages = new ArrayList<>();
+
+        private Batch(MessageRequest request, boolean broadcastEvent, boolean messageEvent) {
+            this.request = request;
+            this.broadcastEvent = broadcastEvent;
+            this.messageEvent = messageEvent;
+        }
+
+        /**
+         * Create a batch for the request if any plugin listens to the events
+         *
+         * @param request The request
+         * @return The batch or null if the messages can be delivered directly
+         */
+        static Batch create(MessageRequest request) {
+            boolean broadcastEvent = request.getRecipient() == null && TalkingMobBroadcastEvent.hasListeners();
+            boolean messageEvent = TalkingMobMessageEvent.hasListeners();
+
+            return broadcastEvent || messageEvent ? new Batch(request, broadcastEvent, messageEvent) : null;
+        }
+
+        /**
+         * Add the rendered message of a recipient (must only be called by the worker processing the request)
+         *
+         * @param recipient The player which should receive the message
+         * @param message   The rendered message
+         */
+        void add(TrackedPlayer recipient, String message) {
+            recipients.add(recipient);
+            messages.add(message);
+        }
+    }
+
+    /**
+     * Constructor of the class
+     *
+     * @param pluginInstance The instance of this plugin
+     * @param metrics        The metrics recording queue overflows and deliveries
+     * @param processor      The function processing the requests on the worker threads
+     */
+    MessagePipeline(TalkingMobs pluginInstance, Metrics metrics, Consumer<MessageRequest> processor) {
+        plugin = pluginInstance;
+        this.metrics = metrics;
+        this.processor = processor;
+        channels = new DeliveryChannels(pluginInstance, metrics);
+    }
+
+    /**
+     * Start the worker threads (or replace them with the current configuration) and the delivery task
+     */
+    void start() {
+        int threads = Math.max(1, plugin.getConfig().getInt("pipeline.threads"));
+        int queueSize = Math.max(1, plugin.getConfig().getInt("pipeline.queue-size"));
+        String overflow = plugin.getConfig().getString("pipeline.overflow", "drop-oldest");
+
+        OverflowPolicy overflowPolicy = OverflowPolicy.fromString(overflow);
+        if (overflowPolicy == null) {
+            plugin.getLogger().log(Level.WARNING, "Unknown overflow policy ''{0}'', using drop-oldest", overflow);
+            overflowPolicy = OverflowPolicy.DROP_OLDEST;
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        RejectedExecutionHandler overflowHandler = overflowPolicy.handler;
+
+        ThreadPoolExecutor previousExecutor = executor;
+
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, plugin.getName() + " Worker " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, (runnable, rejectingExecutor) -> {
+            metrics.queueOverflow();
+            overflowHandler.rejectedExecution(runnable, rejectingExecutor);
+        });
+
+        // Already queued requests are still processed by the previous workers
+        if (previousExecutor != null) {
+            previousExecutor.shutdown();
+        }
+
+        if (deliveryTask == null) {
+            deliveryTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::deliver, 1, 1);
+        }
+    }
+
+    /**
+     * Stop the worker threads and the delivery task (queued requests and messages are discarded and the holograms are
+     * removed)
+     */
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        if (deliveryTask != null) {
+            deliveryTask.cancel();
+            deliveryTask = null;
+        }
+
+        deliveries.clear();
+        channels.clear();
+    }
+
+    /**
+     * Queue the request for being processed by the worker threads
+     *
+     * @param request The request
+     */
+    void submit(MessageRequest request) {
+        ThreadPoolExecutor currentExecutor = executor;
+
+        if (currentExecutor == null) {
+            return;
+        }
+
+        currentExecutor.execute(() -> {
+            try {
+                processor.accept(request);
+            } catch (RuntimeException exception) {
+                plugin.getLogger().log(Level.SEVERE, "Could not process message of " + request.getEntityType(), exception);
+            }
+        });
+    }
+
+    /**
+     * Queue the rendered message for being sent to the player on the next tick (may be called from any thread)
+     *
+     * @param recipient The player which should receive the message
+     * @param message   The rendered message
+     */
+    void deliver(TrackedPlayer recipient, String message) {
+        deliver(recipient, null, message);
+    }
+
+    /**
+     * Queue the rendered message for being sent to the player on the next tick (may be called from any thread)
+     *
+     * @param recipient The player which should receive the message
+     * @param request   The request the message belongs to (null if the message does not belong to a mob)
+     * @param message   The rendered message
+     */
+    void deliver(TrackedPlayer recipient, MessageRequest request, String message) {
+        deliveries.add(new Delivery(recipient, request, message));
+    }
+
+    /**
+     * Queue the text for being shown above the mob on the next tick (may be called from any thread)
+     *
+     * @param request The request the text belongs to
+     * @param text    The rendered text (the same for all players)
+     * @param viewers The number of players which should receive the message
+     */
+    void show(MessageRequest request, String text, int viewers) {
+        deliveries.add(new Delivery(request, text, viewers));
+    }
+
+    /**
+     * Queue the messages of the batch for being sent on the next tick (may be called from any thread)
+     *
+     * @param batch The batch
+     */
+    void deliver(Batch batch) {
+        if (!batch.recipients.isEmpty()) {
+            deliveries.add(new Delivery(batch));
+        }
+    }
+
+    /**
+     * Send all queued messages (called on the main thread once per tick)
+     */
+    void deliver() {
+        Delivery delivery;
+
+        while ((delivery = deliveries.poll()) != null) {
+            if (delivery.batch != null) {
+                send(delivery.batch);
+                continue;
+            }
+
+            if (delivery.recipient == null) {
+                channels.show(delivery.request, delivery.message);
+                metrics.sent(delivery.request.getEventType(), delivery.viewers);
+                continue;
+            }
+
+            Player player = delivery.recipient.getPlayer();
+
+            if (player.isOnline()) {
+                send(player, delivery.request, delivery.message);
+            }
+        }
+
+        channels.flush();
+    }
+
+    private void send(Batch batch) {
+        MessageRequest request = batch.request;
+        Message.EventType eventType = request.getEventType();
+        Entity mob = plugin.getServer().getEntity(request.getMobUniqueId());
+        Map<Player, String> messages = new LinkedHashMap<>();
+
+        for (int index = 0; index < batch.recipients.size(); index++) {
+            Player player = batch.recipients.get(index).getPlayer();
+
+            if (player.isOnline()) {
+                messages.put(player, batch.messages.get(index));
+            }
+        }
+
+        if (batch.broadcastEvent) {
+            int recipients = messages.size();
+            TalkingMobBroadcastEvent event = new TalkingMobBroadcastEvent(mob, request.getEntityType(), eventType, messages);
+            plugin.getServer().getPluginManager().callEvent(event);
+
+            if (event.isCancelled()) {
+                metrics.dropped(eventType, Metrics.DropReason.CANCELLED, recipients);
+                return;
+            }
+
+            if (messages.size() < recipients) {
+                metrics.dropped(eventType, Metrics.DropReason.CANCELLED, recipients - messages.size());
+            }
+        }
+
+        DeliveryChannel configuredChannel = plugin.getSettings().getChannel(eventType);
+
+        for (Map.Entry<Player, String> entry : messages.entrySet()) {
+            String message = entry.getValue();
+            DeliveryChannel channel = configuredChannel;
+
+            if (batch.messageEvent) {
+                TalkingMobMessageEvent event = new TalkingMobMessageEvent(entry.getKey(), mob, request.getEntityType(), eventType, message, channel);
+                plugin.getServer().getPluginManager().callEvent(event);
+
+                if (event.isCancelled()) {
+                    metrics.dropped(eventType, Metrics.DropReason.CANCELLED);
+                    continue;
+                }
+
+                message = event.getMessage();
+                channel = event.getChannel();
+            }
+
+            send(entry.getKey(), request, message, channel);
+        }
+    }
+
+    /**
+     * Send the message using the channel configured for the event type of the request (chat for messages not belonging
+     * to a mob)
+     */
+    private void send(Player player, MessageRequest request, String message) {
+        send(player, request, message, request == null ? DeliveryChannel.CHAT : plugin.getSettings().getChannel(request.getEventType()));
+    }
+
+    private void send(Player player, MessageRequest request, String message, DeliveryChannel channel) {
+        channels.send(player, request, message, channel);
+
+        if (request != null) {
+            metrics.sent(request.getEventType());
+        }
+    }
+}
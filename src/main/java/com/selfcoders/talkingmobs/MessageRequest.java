@@ -0,0 +1,167 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+
+import java.util.UUID;
+
+/**
+ * Immutable snapshot of an event which should result in a mob message
+ *
+ * Requests are created on the main thread and processed by the workers of the {@link MessagePipeline}, so they must
+ * not reference any Bukkit objects.
+ */
+class MessageRequest {
+    private final EntityType entityType;
+    private final int mobId;
+    private final UUID mobUniqueId;
+    private final UUID worldId;
+    private final double x;
+    private final double y;
+    private final double z;
+    private final Message.EventType eventType;
+    private final Message.EventType messageEventType;
+    private final TrackedPlayer recipient;
+    private final int dialogueStep;
+    private final PlaceholderValues placeholders;
+    private final int count;
+
+    /**
+     * Capture the state of the mob
+     *
+     * @param mob              The mob which sends the message
+     * @param eventType        The event type which triggered the message (used for toggles and spam timeouts)
+     * @param messageEventType The event type used to pick the message
+     * @param recipient        The player which should receive the message or null to send it to all players
+     */
+    MessageRequest(Entity mob, Message.EventType eventType, Message.EventType messageEventType, TrackedPlayer recipient) {
+        this(mob, eventType, messageEventType, recipient, Dialogue.END, PlaceholderValues.NONE);
+    }
+
+    /**
+     * Capture the state of the mob
+     *
+     * @param mob              The mob which sends the message
+     * @param eventType        The event type which triggered the message (used for toggles and spam timeouts)
+     * @param messageEventType The event type used to pick the message
+     * @param recipient        The player which should receive the message or null to send it to all players
+     * @param dialogueStep     The step of the dialogue to send or {@link Dialogue#END} to pick a random message
+     * @param placeholders     The values of the mob placeholders used by the messages
+     */
+    MessageRequest(Entity mob, Message.EventType eventType, Message.EventType messageEventType, TrackedPlayer recipient, int dialogueStep, PlaceholderValues placeholders) {
+        Location location = mob.getLocation();
+        World world = location.getWorld();
+
+        this.entityType = mob.getType();
+        this.mobId = mob.getEntityId();
+        this.mobUniqueId = mob.getUniqueId();
+        this.worldId = world == null ? null : world.getUID();
+        this.x = location.getX();
+        this.y = location.getY();
+        this.z = location.getZ();
+        this.eventType = eventType;
+        this.messageEventType = messageEventType;
+        this.recipient = recipient;
+        this.dialogueStep = dialogueStep;
+        this.placeholders = placeholders;
+        this.count = 1;
+    }
+
+    private MessageRequest(MessageRequest request, int count) {
+        this.entityType = request.entityType;
+        this.mobId = request.mobId;
+        this.mobUniqueId = request.mobUniqueId;
+        this.worldId = request.worldId;
+        this.x = request.x;
+        this.y = request.y;
+        this.z = request.z;
+        this.eventType = request.eventType;
+        this.messageEventType = request.messageEventType;
+        this.recipient = request.recipient;
+        this.dialogueStep = request.dialogueStep;
+        this.placeholders = request.placeholders;
+        this.count = count;
+    }
+
+    /**
+     * Create a copy of this request representing the given number of merged events (see {@link BurstCoalescer})
+     *
+     * @param count The number of events
+     * @return The new request
+     */
+    MessageRequest withCount(int count) {
+        return new MessageRequest(this, count);
+    }
+
+    EntityType getEntityType() {
+        return entityType;
+    }
+
+    int getMobId() {
+        return mobId;
+    }
+
+    UUID getMobUniqueId() {
+        return mobUniqueId;
+    }
+
+    UUID getWorldId() {
+        return worldId;
+    }
+
+    double getX() {
+        return x;
+    }
+
+    double getY() {
+        return y;
+    }
+
+    double getZ() {
+        return z;
+    }
+
+    /**
+     * @return The event type which triggered the message (used for toggles and spam timeouts)
+     */
+    Message.EventType getEventType() {
+        return eventType;
+    }
+
+    /**
+     * @return The event type used to pick the message
+     */
+    Message.EventType getMessageEventType() {
+        return messageEventType;
+    }
+
+    /**
+     * @return The step of the dialogue to send or {@link Dialogue#END} to pick a random message
+     */
+    int getDialogueStep() {
+        return dialogueStep;
+    }
+
+    /**
+     * @return The values of the mob placeholders captured with the request
+     */
+    PlaceholderValues getPlaceholders() {
+        return placeholders;
+    }
+
+    /**
+     * @return The number of events represented by this request (more than 1 if a burst of events has been merged)
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @return The player which should receive the message or null to send it to all players
+     */
+    TrackedPlayer getRecipient() {
+        return recipient;
+    }
+}
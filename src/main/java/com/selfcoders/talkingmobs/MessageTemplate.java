@@ -0,0 +1,349 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.ChatColor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A message (or message format) parsed into literal segments and placeholder slots
+ *
+ * Color codes of the literal segments are translated while parsing, so rendering only has to concatenate the segments
+ * and the values of the placeholders. Any other %name% is parsed as placeholder of another plugin (see
+ * {@link PlaceholderResolver}) and kept as it is if no plugin provides a value for it.
+ */
+class MessageTemplate {
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(128);
+        }
+    };
+
+    private final String[] literals;
+    private final Placeholder[] placeholders;
+    // The names of the placeholders of other plugins (null for the other placeholders)
+    private final String[] names;
+    private final References references;
+
+    /**
+     * Placeholders which can be used in messages and message formats
+     */
+    enum Placeholder {
+        /**
+         * The message picked from messages.yml (only available in message formats)
+         */
+        MESSAGE("%message%"),
+        /**
+         * The custom name of the talking mob (e.g. set using a name tag) or the name of its type if it has none
+         */
+        MOBNAME("%mobname%"),
+        /**
+         * The name of the type of the talking mob
+         */
+        MOBTYPE("%mobtype%"),
+        /**
+         * The event type (e.g. attacked, interacted, killed, spawned or tamed)
+         */
+        EVENT("%event%"),
+        /**
+         * The name of the player receiving the message
+         */
+        PLAYER("%player%"),
+        /**
+         * The name of the owner of a tamed mob
+         */
+        OWNER("%owner%"),
+        /**
+         * The health of the mob (rounded up to full points)
+         */
+        HEALTH("%health%"),
+        /**
+         * The biome the mob is in
+         */
+        BIOME("%biome%"),
+        /**
+         * The name of the world the mob is in
+         */
+        WORLD("%world%"),
+        /**
+         * The item the player killing the mob used
+         */
+        WEAPON("%weapon%"),
+        /**
+         * A placeholder of another plugin
+         */
+        CUSTOM(null);
+
+        private final String token;
+
+        Placeholder(String token) {
+            this.token = token;
+        }
+
+        String getToken() {
+            return token;
+        }
+    }
+
+    /**
+     * The placeholders used by one or more templates (e.g. to only capture the values used by the messages of a mob)
+     */
+    static final class References {
+        /**
+         * No placeholders
+         */
+        static final References NONE = new References(0, new String[0]);
+
+        private final int placeholders;
+        private final String[] names;
+
+        private References(int placeholders, String[] names) {
+            this.placeholders = placeholders;
+            this.names = names;
+        }
+
+        /**
+         * @param placeholder The placeholder
+         * @return True if the placeholder is used
+         */
+        boolean contains(Placeholder placeholder) {
+            return (placeholders & 1 << placeholder.ordinal()) != 0;
+        }
+
+        /**
+         * @return The names of the used placeholders of other plugins
+         */
+        String[] getNames() {
+            return names;
+        }
+
+        /**
+         * Combine the placeholders of both references
+         *
+         * @param other The other references
+         * @return The combined references (this instance if it already contains all placeholders of the other one)
+         */
+        References union(References other) {
+            if (other == this || (placeholders | other.placeholders) == placeholders && Arrays.asList(names).containsAll(Arrays.asList(other.names))) {
+                return this;
+            }
+
+            Set<String> combinedNames = new LinkedHashSet<>(Arrays.asList(names));
+            combinedNames.addAll(Arrays.asList(other.names));
+
+            return new References(placeholders | other.placeholders, combinedNames.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * A message of which everything except for the recipient dependent placeholders has been rendered
+     */
+    static class PreparedMessage {
+        private final String[] parts;
+
+        private PreparedMessage(String[] parts) {
+            this.parts = parts;
+        }
+
+        /**
+         * Render the message for the specified player
+         *
+         * @param playerName The name of the player receiving the message
+         * @return The final message
+         */
+        String format(String playerName) {
+            if (parts.length == 1) {
+                return parts[0];
+            }
+
+            StringBuilder buffer = BUFFER.get();
+            buffer.setLength(0);
+
+            buffer.append(parts[0]);
+            for (int index = 1; index < parts.length; index++) {
+                buffer.append(playerName).append(parts[index]);
+            }
+
+            return buffer.toString();
+        }
+    }
+
+    private MessageTemplate(String[] literals, Placeholder[] placeholders, String[] names) {
+        this.literals = literals;
+        this.placeholders = placeholders;
+        this.names = names;
+
+        int mask = 0;
+        Set<String> customNames = new LinkedHashSet<>();
+
+        for (int index = 0; index < placeholders.length; index++) {
+            mask |= 1 << placeholders[index].ordinal();
+
+            if (names[index] != null) {
+                customNames.add(names[index]);
+            }
+        }
+
+        references = mask == 0 ? References.NONE : new References(mask, customNames.toArray(new String[0]));
+    }
+
+    /**
+     * Parse the given string into a template
+     *
+     * @param template The string containing color codes and placeholders
+     * @return The parsed template
+     */
+    static MessageTemplate parse(String template) {
+        List<String> literals = new ArrayList<>();
+        List<Placeholder> placeholders = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+
+        int start = 0;
+        int position = 0;
+
+        while ((position = template.indexOf('%', position)) != -1) {
+            int end = template.indexOf('%', position + 1);
+            if (end == -1) {
+                break;
+            }
+
+            String token = template.substring(position, end + 1);
+            Placeholder placeholder = fromToken(token);
+            String name = null;
+
+            if (placeholder == null) {
+                name = token.substring(1, token.length() - 1);
+
+                if (!isValidName(name)) {
+                    // The closing % might start the next placeholder
+                    position = end;
+                    continue;
+                }
+
+                placeholder = Placeholder.CUSTOM;
+            }
+
+            literals.add(ChatColor.translateAlternateColorCodes('&', template.substring(start, position)));
+            placeholders.add(placeholder);
+            names.add(name);
+
+            position = end + 1;
+            start = position;
+        }
+
+        literals.add(ChatColor.translateAlternateColorCodes('&', template.substring(start)));
+
+        return new MessageTemplate(literals.toArray(new String[0]), placeholders.toArray(new Placeholder[0]), names.toArray(new String[0]));
+    }
+
+    private static Placeholder fromToken(String token) {
+        for (Placeholder placeholder : Placeholder.values()) {
+            if (token.equals(placeholder.getToken())) {
+                return placeholder;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Check whether the name can be used for a placeholder of another plugin
+     *
+     * @param name The name without the % signs
+     * @return True if the name consists of lower case letters, digits, dashes, dots and underscores and is not the name
+     * of a placeholder of this plugin
+     */
+    static boolean isCustomPlaceholder(String name) {
+        return isValidName(name) && fromToken("%" + name + "%") == null;
+    }
+
+    private static boolean isValidName(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+
+        for (int index = 0; index < name.length(); index++) {
+            char character = name.charAt(index);
+
+            if (!(character >= 'a' && character <= 'z' || character >= '0' && character <= '9' || character == '-' || character == '.' || character == '_')) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The placeholders used by this template
+     */
+    References getReferences() {
+        return references;
+    }
+
+    /**
+     * Render this template (used as message format) with everything except for the recipient dependent placeholders
+     *
+     * The values of the mob placeholders are rendered once here and shared by all recipients of the prepared message.
+     *
+     * @param message   The message template to insert for %message%
+     * @param mobType   The name of the type of the mob
+     * @param eventType The event type
+     * @param values    The values of the mob placeholders captured for the message
+     * @return The prepared message which can be formatted for each recipient
+     */
+    PreparedMessage prepare(MessageTemplate message, String mobType, String eventType, PlaceholderValues values) {
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+
+        List<String> parts = new ArrayList<>(2);
+
+        append(buffer, parts, message, mobType, eventType, values);
+
+        parts.add(buffer.toString());
+
+        return new PreparedMessage(parts.toArray(new String[0]));
+    }
+
+    private void append(StringBuilder buffer, List<String> parts, MessageTemplate message, String mobType, String eventType, PlaceholderValues values) {
+        buffer.append(literals[0]);
+
+        for (int index = 0; index < placeholders.length; index++) {
+            switch (placeholders[index]) {
+                case MESSAGE:
+                    if (message == null) {
+                        buffer.append(Placeholder.MESSAGE.getToken());
+                    } else {
+                        message.append(buffer, parts, null, mobType, eventType, values);
+                    }
+                    break;
+                case MOBNAME:
+                    String customName = values.get(Placeholder.MOBNAME);
+                    buffer.append(customName == null ? mobType : customName);
+                    break;
+                case MOBTYPE:
+                    buffer.append(mobType);
+                    break;
+                case EVENT:
+                    buffer.append(eventType);
+                    break;
+                case PLAYER:
+                    parts.add(buffer.toString());
+                    buffer.setLength(0);
+                    break;
+                case CUSTOM:
+                    String value = values.get(names[index]);
+                    buffer.append(value == null ? "%" + names[index] + "%" : value);
+                    break;
+                default:
+                    String mobValue = values.get(placeholders[index]);
+                    buffer.append(mobValue == null ? "" : mobValue);
+            }
+
+            buffer.append(literals[index + 1]);
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package com.selfcoders.talkingmobs;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counters and latency histograms of the event handlers and the message pipeline
+ *
+ * Recording only increments {@link LongAdder}s (which do not contend between the main thread and the workers) and does
+ * not allocate, so the metrics are always collected. They can be shown using /talkingmobs stats and exported via JMX.
+ */
+class Metrics implements MetricsMXBean {
+    private static final String OBJECT_NAME = "com.selfcoders.talkingmobs:type=Metrics";
+
+    private final Histogram[] handlers = new Histogram[Handler.values().length];
+    private final LongAdder[] received = new LongAdder[Message.EventType.values().length];
+    private final LongAdder[] rendered = new LongAdder[Message.EventType.values().length];
+    private final LongAdder[] sent = new LongAdder[Message.EventType.values().length];
+    private final LongAdder[][] dropped = new LongAdder[Message.EventType.values().length][DropReason.values().length];
+    private final Histogram selection = new Histogram();
+    private final Histogram formatting = new Histogram();
+    private final Histogram delivery = new Histogram();
+    private final Histogram[] eventSelection = new Histogram[Message.EventType.values().length];
+    private final Histogram[] eventFormatting = new Histogram[Message.EventType.values().length];
+    private final Histogram[] eventDelivery = new Histogram[Message.EventType.values().length];
+    private final LongAdder queueOverflows = new LongAdder();
+    private final IntSupplier cooldownEntries;
+    private final IntSupplier cachedPreferences;
+    private ObjectName registeredName;
+
+    /**
+     * The event handlers and tasks of which the calls and durations are recorded
+     */
+    enum Handler {
+        CREATURE_SPAWN("creature-spawn"),
+        ENTITY_ATTACKED("entity-attacked"),
+        ENTITY_KILLED("entity-killed"),
+        PLAYER_INTERACT_ENTITY("player-interact-entity"),
+        ENTITY_TAME("entity-tame"),
+        PLAYER_PRE_LOGIN("player-pre-login"),
+        PLAYER_LOGIN("player-login"),
+        PLAYER_JOIN("player-join"),
+        PLAYER_CHANGED_WORLD("player-changed-world"),
+        PLAYER_LOCALE_CHANGE("player-locale-change"),
+        CHUNK_UNLOAD("chunk-unload"),
+        PLAYER_QUIT("player-quit"),
+        LOOKING_CHECK("looking-check"),
+        IDLE_CHECK("idle-check");
+
+        private final String name;
+
+        Handler(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Reasons why a message has not been sent to a player
+     */
+    enum DropReason {
+        /**
+         * The player disabled the event type (or all mob messages)
+         */
+        DISABLED("disabled"),
+        /**
+         * The player does not have the permission to receive mob messages
+         */
+        NO_PERMISSION("no-permission"),
+        /**
+         * The player is not tracked by the plugin (e.g. it is joining or quitting)
+         */
+        UNTRACKED("untracked"),
+        /**
+         * The mob already sent a message of the event type to the player within the spam timeout
+         */
+        SPAM("spam"),
+        /**
+         * The player is too far away from the mob (or in another world)
+         */
+        DISTANCE("distance"),
+        /**
+         * There are no messages defined for the mob and event type
+         */
+        NO_MESSAGES("no-messages"),
+        /**
+         * The message exceeded the rate limits
+         */
+        RATE_LIMIT("rate-limit"),
+        /**
+         * The message has been merged into the summary of a burst of messages
+         */
+        COALESCED("coalesced"),
+        /**
+         * Another plugin cancelled the message (see {@link TalkingMobMessageEvent} and {@link TalkingMobBroadcastEvent})
+         */
+        CANCELLED("cancelled");
+
+        private final String name;
+
+        DropReason(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Histogram of durations using power of two buckets (bucket i counts durations between 2^i and 2^(i+1) nanoseconds)
+     */
+    static class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        Histogram() {
+            for (int index = 0; index < BUCKETS; index++) {
+                buckets[index] = new LongAdder();
+            }
+        }
+
+        /**
+         * Record a duration
+         *
+         * @param nanos The duration in nanoseconds
+         */
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+
+            count.increment();
+            total.add(nanos);
+            buckets[63 - Long.numberOfLeadingZeros(nanos | 1)].increment();
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        long getTotal() {
+            return total.sum();
+        }
+
+        /**
+         * Get the approximated percentile (the upper bound of the bucket containing it)
+         *
+         * @param percentile The percentile (between 0 and 1)
+         * @return The upper bound of the percentile in nanoseconds or 0 if nothing has been recorded
+         */
+        long getPercentile(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long sum = 0;
+
+            for (int index = 0; index < BUCKETS; index++) {
+                counts[index] = buckets[index].sum();
+                sum += counts[index];
+            }
+
+            long target = (long) Math.ceil(sum * percentile);
+            long cumulative = 0;
+
+            for (int index = 0; index < BUCKETS; index++) {
+                cumulative += counts[index];
+
+                if (cumulative >= target && cumulative > 0) {
+                    return index >= 62 ? Long.MAX_VALUE : 1L << (index + 1);
+                }
+            }
+
+            return 0;
+        }
+    }
+
+    /**
+     * Constructor of the class
+     *
+     * @param cooldownEntries   The function returning the number of entries in the spam timeout table
+     * @param cachedPreferences The function returning the number of players in the preference cache
+     */
+    Metrics(IntSupplier cooldownEntries, IntSupplier cachedPreferences) {
+        this.cooldownEntries = cooldownEntries;
+        this.cachedPreferences = cachedPreferences;
+
+        for (int index = 0; index < handlers.length; index++) {
+            handlers[index] = new Histogram();
+        }
+
+        for (int eventType = 0; eventType < received.length; eventType++) {
+            received[eventType] = new LongAdder();
+            rendered[eventType] = new LongAdder();
+            sent[eventType] = new LongAdder();
+            eventSelection[eventType] = new Histogram();
+            eventFormatting[eventType] = new Histogram();
+            eventDelivery[eventType] = new Histogram();
+
+            for (int reason = 0; reason < DropReason.values().length; reason++) {
+                dropped[eventType][reason] = new LongAdder();
+            }
+        }
+    }
+
+    /**
+     * Record a call of an event handler
+     *
+     * @param handler The handler
+     * @param start   The value of {@link System#nanoTime()} at the start of the call
+     */
+    void handled(Handler handler, long start) {
+        handlers[handler.ordinal()].record(System.nanoTime() - start);
+    }
+
+    /**
+     * Record a message request accepted on the main thread
+     *
+     * @param eventType The event type
+     */
+    void received(Message.EventType eventType) {
+        received[eventType.ordinal()].increment();
+    }
+
+    /**
+     * Record a message rendered for a player and queued for delivery
+     *
+     * @param eventType The event type
+     */
+    void rendered(Message.EventType eventType) {
+        rendered[eventType.ordinal()].increment();
+    }
+
+    /**
+     * Record a message rendered once for multiple players (e.g. a hologram)
+     *
+     * @param eventType The event type
+     * @param count     The number of players
+     */
+    void rendered(Message.EventType eventType, long count) {
+        rendered[eventType.ordinal()].add(count);
+    }
+
+    /**
+     * Record a message sent to a player
+     *
+     * @param eventType The event type
+     */
+    void sent(Message.EventType eventType) {
+        sent[eventType.ordinal()].increment();
+    }
+
+    /**
+     * Record a message shown to multiple players at once (e.g. a hologram)
+     *
+     * @param eventType The event type
+     * @param count     The number of players
+     */
+    void sent(Message.EventType eventType, long count) {
+        sent[eventType.ordinal()].add(count);
+    }
+
+    /**
+     * Record a message which has not been sent to a player
+     *
+     * @param eventType The event type
+     * @param reason    The reason
+     */
+    void dropped(Message.EventType eventType, DropReason reason) {
+        dropped[eventType.ordinal()][reason.ordinal()].increment();
+    }
+
+    /**
+     * Record multiple messages which have not been sent
+     *
+     * @param eventType The event type
+     * @param reason    The reason
+     * @param count     The number of messages
+     */
+    void dropped(Message.EventType eventType, DropReason reason, long count) {
+        dropped[eventType.ordinal()][reason.ordinal()].add(count);
+    }
+
+    /**
+     * Record the time spent picking a message (on the worker threads)
+     *
+     * @param eventType The event type
+     * @param nanos     The duration in nanoseconds
+     */
+    void selected(Message.EventType eventType, long nanos) {
+        selection.record(nanos);
+        eventSelection[eventType.ordinal()].record(nanos);
+    }
+
+    /**
+     * Record the time spent formatting a message (on the worker threads)
+     *
+     * @param eventType The event type
+     * @param nanos     The duration in nanoseconds
+     */
+    void formatted(Message.EventType eventType, long nanos) {
+        formatting.record(nanos);
+        eventFormatting[eventType.ordinal()].record(nanos);
+    }
+
+    /**
+     * Record the time spent sending a message to a player (on the main thread)
+     *
+     * @param eventType The event type (null for messages not belonging to a mob, which are only recorded in total)
+     * @param nanos     The duration in nanoseconds
+     */
+    void delivered(Message.EventType eventType, long nanos) {
+        delivery.record(nanos);
+
+        if (eventType != null) {
+            eventDelivery[eventType.ordinal()].record(nanos);
+        }
+    }
+
+    /**
+     * Record a request which did not fit into the queue of the message pipeline
+     */
+    void queueOverflow() {
+        queueOverflows.increment();
+    }
+
+    Histogram getHandler(Handler handler) {
+        return handlers[handler.ordinal()];
+    }
+
+    long getReceived(Message.EventType eventType) {
+        return received[eventType.ordinal()].sum();
+    }
+
+    long getRendered(Message.EventType eventType) {
+        return rendered[eventType.ordinal()].sum();
+    }
+
+    long getSent(Message.EventType eventType) {
+        return sent[eventType.ordinal()].sum();
+    }
+
+    long getDropped(Message.EventType eventType, DropReason reason) {
+        return dropped[eventType.ordinal()][reason.ordinal()].sum();
+    }
+
+    /**
+     * @return The time spent picking a message (on the worker threads)
+     */
+    Histogram getSelection() {
+        return selection;
+    }
+
+    /**
+     * @return The time spent formatting a message (on the worker threads)
+     */
+    Histogram getFormatting() {
+        return formatting;
+    }
+
+    /**
+     * @return The time spent sending a message to a player (on the main thread)
+     */
+    Histogram getDelivery() {
+        return delivery;
+    }
+
+    Histogram getSelection(Message.EventType eventType) {
+        return eventSelection[eventType.ordinal()];
+    }
+
+    Histogram getFormatting(Message.EventType eventType) {
+        return eventFormatting[eventType.ordinal()];
+    }
+
+    Histogram getDelivery(Message.EventType eventType) {
+        return eventDelivery[eventType.ordinal()];
+    }
+
+    @Override
+    public Map<String, Long> getHandlers() {
+        Map<String, Long> values = new LinkedHashMap<>();
+
+        for (Handler handler : Handler.values()) {
+            Histogram histogram = getHandler(handler);
+
+            values.put(handler.getName() + ".calls", histogram.getCount());
+            values.put(handler.getName() + ".nanos", histogram.getTotal());
+        }
+
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getMessages() {
+        Map<String, Long> values = new LinkedHashMap<>();
+
+        for (Message.EventType eventType : Message.EventType.values()) {
+            values.put(eventType.getType() + ".received", getReceived(eventType));
+            values.put(eventType.getType() + ".rendered", getRendered(eventType));
+            values.put(eventType.getType() + ".sent", getSent(eventType));
+
+            for (DropReason reason : DropReason.values()) {
+                values.put(eventType.getType() + ".dropped." + reason.getName(), getDropped(eventType, reason));
+            }
+        }
+
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getTimings() {
+        Map<String, Long> values = new LinkedHashMap<>();
+
+        putTimings(values, "selection", selection);
+        putTimings(values, "formatting", formatting);
+        putTimings(values, "delivery", delivery);
+
+        for (Message.EventType eventType : Message.EventType.values()) {
+            putTimings(values, "selection." + eventType.getType(), getSelection(eventType));
+            putTimings(values, "formatting." + eventType.getType(), getFormatting(eventType));
+            putTimings(values, "delivery." + eventType.getType(), getDelivery(eventType));
+        }
+
+        return values;
+    }
+
+    private static void putTimings(Map<String, Long> values, String name, Histogram histogram) {
+        values.put(name + ".count", histogram.getCount());
+        values.put(name + ".nanos", histogram.getTotal());
+        values.put(name + ".p50", histogram.getPercentile(0.50));
+        values.put(name + ".p99", histogram.getPercentile(0.99));
+    }
+
+    @Override
+    public long getQueueOverflows() {
+        return queueOverflows.sum();
+    }
+
+    @Override
+    public int getCooldownEntries() {
+        return cooldownEntries.getAsInt();
+    }
+
+    @Override
+    public int getCachedPreferences() {
+        return cachedPreferences.getAsInt();
+    }
+
+    /**
+     * Register or unregister the metrics at the platform MBean server
+     *
+     * @param register True to register the metrics, false to unregister them
+     * @param logger   The logger used to report errors
+     */
+    void setMBeanRegistered(boolean register, Logger logger) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            if (register && registeredName == null) {
+                ObjectName name = new ObjectName(OBJECT_NAME);
+
+                // Left over by a previous instance of the plugin (e.g. after a failed disable)
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+
+                server.registerMBean(this, name);
+                registeredName = name;
+            } else if (!register && registeredName != null) {
+                server.unregisterMBean(registeredName);
+                registeredName = null;
+            }
+        } catch (JMException exception) {
+            logger.log(Level.WARNING, "Could not " + (register ? "register" : "unregister") + " the metrics MBean", exception);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.selfcoders.talkingmobs;
+
+import java.util.Map;
+
+/**
+ * Management interface exporting the metrics of this plugin via JMX (if enabled in config.yml)
+ *
+ * All counters are cumulative since the plugin has been enabled. Durations are in nanoseconds.
+ */
+public interface MetricsMXBean {
+    /**
+     * @return The number of calls and the total time per event handler (keys "&lt;handler&gt;.calls" and "&lt;handler&gt;.nanos")
+     */
+    Map<String, Long> getHandlers();
+
+    /**
+     * @return The number of received, rendered, sent and dropped messages per event type (keys like "attacked.sent" or
+     * "attacked.dropped.spam")
+     */
+    Map<String, Long> getMessages();
+
+    /**
+     * @return The number of samples, the total time and the approximated 50th and 99th percentiles of the selection,
+     * formatting and delivery stages in total and per event type (keys like "selection.count", "selection.nanos",
+     * "selection.p50", "selection.p99" or "delivery.attacked.p99")
+     */
+    Map<String, Long> getTimings();
+
+    /**
+     * @return The number of requests which did not fit into the queue of the message pipeline
+     */
+    long getQueueOverflows();
+
+    /**
+     * @return The number of entries in the spam timeout table
+     */
+    int getCooldownEntries();
+
+    /**
+     * @return The number of players in the preference cache
+     */
+    int getCachedPreferences();
+}
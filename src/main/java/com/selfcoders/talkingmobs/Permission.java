@@ -1,8 +1,10 @@
 package com.selfcoders.talkingmobs;
 
 enum Permission {
+    MIGRATE("talkingmobs.migrate"),
     RECEIVE("talkingmobs.receive"),
-    RELOAD("talkingmobs.reload");
+    RELOAD("talkingmobs.reload"),
+    STATS("talkingmobs.stats");
 
     private String permission;
 
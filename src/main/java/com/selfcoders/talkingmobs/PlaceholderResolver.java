@@ -0,0 +1,22 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.entity.Entity;
+
+/**
+ * Provides the value of a placeholder registered by another plugin (see
+ * {@link TalkingMobs#registerPlaceholder(String, PlaceholderResolver)})
+ *
+ * The resolver is called on the main thread once per message of a mob, but only if the messages of the mob and event
+ * type use the placeholder. The value is shared by all players receiving the message.
+ */
+@FunctionalInterface
+public interface PlaceholderResolver {
+    /**
+     * Get the value of the placeholder
+     *
+     * @param mob       The mob sending the message
+     * @param eventType The event type which triggered the message
+     * @return The value or null to keep the placeholder as it is
+     */
+    String resolve(Entity mob, Message.EventType eventType);
+}
@@ -0,0 +1,168 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.entity.AnimalTamer;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Tameable;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Immutable snapshot of the values of the mob placeholders (e.g. %owner% or %health%) for a single message
+ *
+ * The values are captured on the main thread together with the {@link MessageRequest}, so the workers rendering the
+ * message do not access the mob. Only the placeholders used by the messages of the mob and event type are captured.
+ * As the values do not depend on the recipients, they are captured once per message and rendered once per prepared
+ * message.
+ */
+final class PlaceholderValues {
+    /**
+     * No values (the mob placeholders are rendered empty and %mobname% as the name of the mob type)
+     */
+    static final PlaceholderValues NONE = new PlaceholderValues(new String[MessageTemplate.Placeholder.values().length], null);
+
+    private static final MessageTemplate.Placeholder[] MOB_PLACEHOLDERS = {
+            MessageTemplate.Placeholder.MOBNAME,
+            MessageTemplate.Placeholder.OWNER,
+            MessageTemplate.Placeholder.HEALTH,
+            MessageTemplate.Placeholder.BIOME,
+            MessageTemplate.Placeholder.WORLD,
+            MessageTemplate.Placeholder.WEAPON
+    };
+
+    private final String[] values;
+    private final Map<String, String> customValues;
+
+    private PlaceholderValues(String[] values, Map<String, String> customValues) {
+        this.values = values;
+        this.customValues = customValues;
+    }
+
+    /**
+     * Capture the values of the used placeholders (must be called on the main thread)
+     *
+     * @param mob        The mob sending the message
+     * @param eventType  The event type which triggered the message
+     * @param references The placeholders used by the messages which might be picked
+     * @param resolvers  The resolvers of the placeholders of other plugins by name
+     * @param logger     The logger used to report failing resolvers
+     * @return The captured values
+     */
+    static PlaceholderValues capture(Entity mob, Message.EventType eventType, MessageTemplate.References references, Map<String, PlaceholderResolver> resolvers, Logger logger) {
+        String[] values = null;
+
+        for (MessageTemplate.Placeholder placeholder : MOB_PLACEHOLDERS) {
+            if (references.contains(placeholder)) {
+                if (values == null) {
+                    values = new String[MessageTemplate.Placeholder.values().length];
+                }
+
+                values[placeholder.ordinal()] = resolve(mob, placeholder);
+            }
+        }
+
+        Map<String, String> customValues = null;
+
+        for (String name : references.getNames()) {
+            PlaceholderResolver resolver = resolvers.get(name);
+
+            if (resolver == null) {
+                continue;
+            }
+
+            String value;
+
+            try {
+                value = resolver.resolve(mob, eventType);
+            } catch (RuntimeException exception) {
+                logger.log(Level.WARNING, "Could not resolve placeholder %" + name + "%", exception);
+                continue;
+            }
+
+            if (value != null) {
+                if (customValues == null) {
+                    customValues = new HashMap<>();
+                }
+
+                customValues.put(name, value);
+            }
+        }
+
+        if (values == null && customValues == null) {
+            return NONE;
+        }
+
+        return new PlaceholderValues(values == null ? NONE.values : values, customValues);
+    }
+
+    private static String resolve(Entity mob, MessageTemplate.Placeholder placeholder) {
+        switch (placeholder) {
+            case MOBNAME:
+                return mob.getCustomName();
+            case OWNER:
+                if (mob instanceof Tameable) {
+                    AnimalTamer owner = ((Tameable) mob).getOwner();
+
+                    if (owner != null && owner.getName() != null) {
+                        return owner.getName();
+                    }
+                }
+
+                return "";
+            case HEALTH:
+                return mob instanceof LivingEntity ? String.valueOf((long) Math.ceil(((LivingEntity) mob).getHealth())) : "";
+            case BIOME:
+                Location location = mob.getLocation();
+                World world = location.getWorld();
+
+                return world == null ? "" : world.getBiome(location.getBlockX(), location.getBlockZ()).name().toLowerCase(Locale.ROOT);
+            case WORLD:
+                return mob.getWorld() == null ? "" : mob.getWorld().getName();
+            case WEAPON:
+                Player killer = mob instanceof LivingEntity ? ((LivingEntity) mob).getKiller() : null;
+
+                if (killer == null) {
+                    return "";
+                }
+
+                ItemStack item = killer.getInventory().getItemInMainHand();
+
+                if (item == null || item.getType() == Material.AIR) {
+                    return "";
+                }
+
+                if (item.hasItemMeta() && item.getItemMeta().hasDisplayName()) {
+                    return item.getItemMeta().getDisplayName();
+                }
+
+                return item.getType().name().toLowerCase(Locale.ROOT);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param placeholder The mob placeholder
+     * @return The value or null if it has not been captured (or the mob has no custom name for %mobname%)
+     */
+    String get(MessageTemplate.Placeholder placeholder) {
+        return values[placeholder.ordinal()];
+    }
+
+    /**
+     * @param name The name of a placeholder of another plugin
+     * @return The value or null if there is no value
+     */
+    String get(String name) {
+        return customValues == null ? null : customValues.get(name);
+    }
+}
@@ -0,0 +1,86 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the online players and their position snapshots
+ */
+class PlayerTracker {
+    private final Map<UUID, TrackedPlayer> players = new ConcurrentHashMap<>();
+    private final SpatialIndex index = new SpatialIndex();
+    private final Location buffer = new Location(null, 0, 0, 0);
+
+    /**
+     * Start tracking the player (e.g. once the player joined)
+     *
+     * @param player The player
+     * @return The tracked player
+     */
+    TrackedPlayer add(Player player) {
+        TrackedPlayer trackedPlayer = players.computeIfAbsent(player.getUniqueId(), uuid -> new TrackedPlayer(player));
+
+        trackedPlayer.updatePosition(buffer);
+        index.update(trackedPlayer);
+
+        return trackedPlayer;
+    }
+
+    /**
+     * Stop tracking the player (e.g. once the player left the server)
+     *
+     * @param player The player
+     * @return The previously tracked player or null if the player has not been tracked
+     */
+    TrackedPlayer remove(Player player) {
+        TrackedPlayer trackedPlayer = players.remove(player.getUniqueId());
+
+        if (trackedPlayer != null) {
+            index.remove(trackedPlayer);
+        }
+
+        return trackedPlayer;
+    }
+
+    /**
+     * Get the tracked player
+     *
+     * @param player The player
+     * @return The tracked player or null if the player is not tracked
+     */
+    TrackedPlayer get(Player player) {
+        return players.get(player.getUniqueId());
+    }
+
+    /**
+     * @return All tracked players
+     */
+    Collection<TrackedPlayer> getAll() {
+        return players.values();
+    }
+
+    /**
+     * Get the index of the tracked players by world and region
+     *
+     * @return The spatial index
+     */
+    SpatialIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Update the position snapshots of all tracked players (must be called on the main thread)
+     */
+    void updatePositions() {
+        for (TrackedPlayer trackedPlayer : players.values()) {
+            if (trackedPlayer.updatePosition(buffer)) {
+                index.update(trackedPlayer);
+            }
+        }
+    }
+}
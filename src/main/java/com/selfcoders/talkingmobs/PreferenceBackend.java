@@ -0,0 +1,55 @@
+package com.selfcoders.talkingmobs;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Storage of the per player toggles used by the {@link PreferenceStore}
+ *
+ * All methods are called from the background thread of the preference store only, so implementations do not have to
+ * be thread-safe.
+ */
+interface PreferenceBackend {
+    /**
+     * Open the storage (e.g. load the file or connect to the database)
+     *
+     * @throws IOException If the storage could not be opened
+     */
+    void open() throws IOException;
+
+    /**
+     * Load the toggles of the player
+     *
+     * @param uuid The UUID of the player
+     * @param name The name of the player
+     * @return The toggles or null if there are none stored for the player
+     * @throws IOException If the toggles could not be loaded
+     */
+    PreferenceStore.Preferences load(UUID uuid, String name) throws IOException;
+
+    /**
+     * Store the toggles of the given players
+     *
+     * @param preferences The toggles of the players which have been changed
+     * @throws IOException If the toggles could not be stored
+     */
+    void save(Collection<PreferenceStore.Preferences> preferences) throws IOException;
+
+    /**
+     * Pass the toggles of all stored players to the consumer (used for migrating to another storage)
+     *
+     * @param consumer The consumer receiving the toggles
+     * @return The number of stored entries which could not be passed to the consumer (the reasons are logged)
+     * @throws IOException If the toggles could not be loaded
+     */
+    int forEach(Consumer<PreferenceStore.Preferences> consumer) throws IOException;
+
+    /**
+     * Close the storage
+     *
+     * @throws IOException If the storage could not be closed properly
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,545 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * In-memory cache of the per player toggles
+ *
+ * The toggles of a player are loaded once the player joins and evicted once the player quits. Changed toggles are
+ * written back in batches by a background thread, which is also the only thread accessing the storage backend.
+ */
+class PreferenceStore {
+    private static final Message.EventType[] EVENT_TYPES = Message.EventType.values();
+
+    /**
+     * Bit used for the "all" toggle, the bits of the event types are their ordinals
+     */
+    static final int ALL = 1 << 31;
+
+    private final TalkingMobs plugin;
+    private final Map<UUID, Preferences> cache = new ConcurrentHashMap<>();
+    private final Queue<Preferences> evicted = new ConcurrentLinkedQueue<>();
+    private ScheduledExecutorService executor;
+    private PreferenceBackend backend;
+
+    /**
+     * The toggles of a single player
+     */
+    static class Preferences {
+        private final UUID uuid;
+        private final String name;
+        private volatile int disabled;
+        private volatile boolean dirty;
+        // False if the player toggled before the stored toggles have been loaded
+        private volatile boolean loaded = true;
+        // The bits changed by the player (only used till the stored toggles have been loaded)
+        private int changed;
+
+        Preferences(UUID uuid, String name, int disabled) {
+            this.uuid = uuid;
+            this.name = name;
+            this.disabled = disabled;
+        }
+
+        UUID getUniqueId() {
+            return uuid;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return The bitset of disabled event types (see {@link #bit(Message.EventType)} and {@link #ALL})
+         */
+        int getDisabled() {
+            return disabled;
+        }
+
+        boolean isEnabled(Message.EventType eventType) {
+            return (disabled & (ALL | bit(eventType))) == 0;
+        }
+
+        boolean isEnabled() {
+            return (disabled & ALL) == 0;
+        }
+
+        private synchronized void update(int mask, boolean state) {
+            if (state) {
+                disabled &= ~mask;
+            } else {
+                disabled |= mask;
+            }
+
+            changed |= mask;
+            dirty = true;
+        }
+
+        /**
+         * Apply the stored toggles to the toggles the player changed before they have been loaded
+         *
+         * @param stored The stored bitset of disabled event types
+         */
+        private synchronized void merge(int stored) {
+            disabled = (stored & ~changed) | (disabled & changed);
+            loaded = true;
+        }
+    }
+
+    PreferenceStore(TalkingMobs pluginInstance) {
+        plugin = pluginInstance;
+    }
+
+    /**
+     * Get the bit of the event type in the bitset of disabled event types
+     *
+     * @param eventType The event type
+     * @return The bit
+     */
+    static int bit(Message.EventType eventType) {
+        return 1 << eventType.ordinal();
+    }
+
+    /**
+     * Encode the bitset of disabled event types into a comma separated list of their names (e.g. "all,looking")
+     *
+     * @param disabled The bitset
+     * @return The names of the disabled event types
+     */
+    static String encode(int disabled) {
+        StringBuilder names = new StringBuilder();
+
+        if ((disabled & ALL) != 0) {
+            names.append("all");
+        }
+
+        for (Message.EventType eventType : EVENT_TYPES) {
+            if ((disabled & bit(eventType)) != 0) {
+                if (names.length() > 0) {
+                    names.append(',');
+                }
+
+                names.append(eventType.getType());
+            }
+        }
+
+        return names.toString();
+    }
+
+    /**
+     * Decode a comma separated list of disabled event types into a bitset
+     *
+     * @param names The names of the disabled event types
+     * @return The bitset
+     */
+    static int decode(String names) {
+        int disabled = 0;
+
+        for (String name : names.split(",")) {
+            if (name.equals("all")) {
+                disabled |= ALL;
+                continue;
+            }
+
+            Message.EventType eventType = Message.EventType.fromString(name);
+
+            if (eventType != null) {
+                disabled |= bit(eventType);
+            }
+        }
+
+        return disabled;
+    }
+
+    /**
+     * Create the storage backend configured in config.yml
+     *
+     * @param plugin The instance of this plugin
+     * @param type   The type of the storage (yaml, sqlite or memory)
+     * @return The storage backend or null if the type is unknown
+     */
+    static PreferenceBackend createBackend(TalkingMobs plugin, String type) {
+        switch (type.toLowerCase()) {
+            case "yaml":
+                return new YamlPreferenceBackend(plugin);
+            case "sqlite":
+                return new SQLitePreferenceBackend(plugin);
+            case "memory":
+                return new MemoryPreferenceBackend();
+        }
+
+        return null;
+    }
+
+    /**
+     * Start the background thread, open the storage backend and load the toggles of all online players
+     */
+    void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, plugin.getName() + " Preferences");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        String storage = plugin.getConfig().getString("storage", "yaml");
+        PreferenceBackend configuredBackend = createBackend(plugin, storage);
+
+        if (configuredBackend == null) {
+            plugin.getLogger().log(Level.WARNING, "Unknown storage ''{0}'', using yaml", storage);
+            configuredBackend = new YamlPreferenceBackend(plugin);
+        }
+
+        PreferenceBackend preferenceBackend = configuredBackend;
+
+        executor.execute(() -> {
+            try {
+                preferenceBackend.open();
+                backend = preferenceBackend;
+            } catch (IOException exception) {
+                plugin.getLogger().log(Level.SEVERE, "Could not open storage '" + storage + "', player toggles will not be saved", exception);
+                backend = new MemoryPreferenceBackend();
+            }
+        });
+
+        long interval = Math.max(1, plugin.getConfig().getLong("players-save-interval"));
+        executor.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.SECONDS);
+
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            load(player.getUniqueId(), player.getName());
+        }
+    }
+
+    /**
+     * Write all pending changes, close the storage backend and stop the background thread
+     */
+    void shutdown() {
+        if (executor == null) {
+            return;
+        }
+
+        executor.execute(() -> {
+            flush();
+
+            try {
+                backend.close();
+            } catch (IOException exception) {
+                plugin.getLogger().log(Level.SEVERE, "Could not close storage", exception);
+            }
+        });
+
+        executor.shutdown();
+
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timeout while saving player toggles");
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+
+        executor = null;
+        cache.clear();
+    }
+
+    /**
+     * Load the toggles of the player into the cache and wait till they are loaded
+     * This method blocks, so it should only be called from an async thread (e.g. in AsyncPlayerPreLoginEvent).
+     *
+     * @param uuid The UUID of the player
+     * @param name The name of the player
+     */
+    void load(UUID uuid, String name) {
+        try {
+            executor.submit(() -> read(uuid, name)).get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException exception) {
+            plugin.getLogger().log(Level.SEVERE, "Could not load toggles of player " + name, exception.getCause());
+        }
+    }
+
+    /**
+     * Load the toggles of the player into the cache in the background if they are not already loaded
+     *
+     * @param player The player
+     */
+    void loadLater(Player player) {
+        UUID uuid = player.getUniqueId();
+        String name = player.getName();
+        Preferences cached = cache.get(uuid);
+
+        if (cached != null && cached.loaded) {
+            return;
+        }
+
+        executor.execute(() -> read(uuid, name));
+    }
+
+    /**
+     * Evict the toggles of the player from the cache (they are still written back if they have been changed)
+     *
+     * @param player The player
+     */
+    void unload(Player player) {
+        Preferences preferences = cache.remove(player.getUniqueId());
+
+        if (preferences != null && preferences.dirty) {
+            evicted.add(preferences);
+        }
+    }
+
+    /**
+     * Get the cached toggles of the player
+     *
+     * @param player The player
+     * @return The toggles or null if they are not loaded (yet)
+     */
+    Preferences get(Player player) {
+        return cache.get(player.getUniqueId());
+    }
+
+    /**
+     * @return The number of players of which the toggles are cached
+     */
+    int size() {
+        return cache.size();
+    }
+
+    /**
+     * Enable or disable the event type for the player
+     *
+     * @param player    The player
+     * @param eventType The event type
+     * @param state     The new state
+     */
+    void setEnabled(Player player, Message.EventType eventType, boolean state) {
+        Preferences preferences = getOrCreate(player);
+
+        preferences.update(bit(eventType), state);
+        preferences.update(ALL, true);
+    }
+
+    /**
+     * Enable or disable all (toggleable) event types for the player
+     *
+     * @param player The player
+     * @param state  The new state
+     */
+    void setEnabled(Player player, boolean state) {
+        int mask = ALL;
+
+        for (Message.EventType eventType : EVENT_TYPES) {
+            if (eventType.isToggleable()) {
+                mask |= bit(eventType);
+            }
+        }
+
+        getOrCreate(player).update(mask, state);
+    }
+
+    /**
+     * Copy all toggles stored in players.yml into the SQLite database in the background
+     * The result is reported to the sender once the migration is finished.
+     *
+     * @param sender The sender of the migrate command
+     */
+    void migrate(CommandSender sender) {
+        executor.execute(() -> {
+            String result;
+
+            try {
+                result = copyYamlToDatabase();
+            } catch (IOException exception) {
+                plugin.getLogger().log(Level.SEVERE, "Could not migrate player toggles", exception);
+                result = ChatColor.RED + "Migration failed: " + exception.getMessage();
+            }
+
+            String message = result;
+            plugin.getServer().getScheduler().runTask(plugin, () -> sender.sendMessage(message));
+        });
+    }
+
+    /**
+     * @return The result reported to the sender
+     */
+    private String copyYamlToDatabase() throws IOException {
+        flush();
+
+        PreferenceBackend source = backend instanceof YamlPreferenceBackend ? backend : new YamlPreferenceBackend(plugin);
+        PreferenceBackend target = backend instanceof SQLitePreferenceBackend ? backend : new SQLitePreferenceBackend(plugin);
+
+        if (source != backend) {
+            source.open();
+        }
+
+        if (target != backend) {
+            target.open();
+        }
+
+        try {
+            List<Preferences> preferences = new ArrayList<>();
+
+            int skipped = source.forEach(preferences::add);
+            target.save(preferences);
+
+            if (skipped > 0) {
+                return ChatColor.YELLOW + "Migrated toggles of " + preferences.size() + " players to players.db, skipped " + skipped + " entries (see the server log)";
+            }
+
+            return ChatColor.GREEN + "Migrated toggles of " + preferences.size() + " players to players.db";
+        } finally {
+            if (source != backend) {
+                source.close();
+            }
+
+            if (target != backend) {
+                target.close();
+            }
+        }
+    }
+
+    private Preferences getOrCreate(Player player) {
+        return cache.computeIfAbsent(player.getUniqueId(), uuid -> {
+            // The stored toggles are merged once they have been loaded (see read())
+            Preferences preferences = new Preferences(uuid, player.getName(), 0);
+            preferences.loaded = false;
+
+            return preferences;
+        });
+    }
+
+    /**
+     * Read the toggles of the player from the storage backend (called on the background thread)
+     */
+    private void read(UUID uuid, String name) {
+        Preferences cached = cache.get(uuid);
+
+        if (cached != null && cached.loaded) {
+            return;
+        }
+
+        // Pending changes of the player (e.g. if the player just left and joined again) are newer than the stored ones,
+        // they are written back by the next flush
+        Preferences pending = takeEvicted(uuid);
+        Preferences preferences = pending != null && pending.loaded ? pending : null;
+
+        if (preferences == null) {
+            try {
+                preferences = backend.load(uuid, name);
+            } catch (IOException exception) {
+                plugin.getLogger().log(Level.SEVERE, "Could not load toggles of player " + name, exception);
+            }
+        }
+
+        if (preferences == null) {
+            preferences = new Preferences(uuid, name, 0);
+        }
+
+        // The player toggled and left before the stored toggles have been loaded
+        if (pending != null && !pending.loaded) {
+            pending.merge(preferences.disabled);
+            preferences = pending;
+        }
+
+        if (cached == null) {
+            cached = cache.putIfAbsent(uuid, preferences);
+        }
+
+        // The player toggled in the meantime, keep those changes but do not overwrite the other stored toggles
+        if (cached != null) {
+            cached.merge(preferences.disabled);
+        }
+    }
+
+    /**
+     * Remove the evicted toggles of the player which have not been written yet
+     *
+     * @param uuid The UUID of the player
+     * @return The most recently evicted toggles of the player or null if there are none
+     */
+    private Preferences takeEvicted(UUID uuid) {
+        Preferences latest = null;
+        Iterator<Preferences> iterator = evicted.iterator();
+
+        while (iterator.hasNext()) {
+            Preferences preferences = iterator.next();
+
+            if (preferences.uuid.equals(uuid)) {
+                iterator.remove();
+                latest = preferences;
+            }
+        }
+
+        return latest;
+    }
+
+    /**
+     * Write all changed toggles to the storage backend (called on the background thread)
+     */
+    private void flush() {
+        List<Preferences> changed = new ArrayList<>();
+
+        Preferences preferences;
+        while ((preferences = evicted.poll()) != null) {
+            // The player left before the stored toggles have been loaded
+            if (!preferences.loaded) {
+                try {
+                    Preferences stored = backend.load(preferences.uuid, preferences.name);
+                    preferences.merge(stored == null ? 0 : stored.disabled);
+                } catch (IOException exception) {
+                    plugin.getLogger().log(Level.SEVERE, "Could not load toggles of player " + preferences.name + ", the changed toggles are lost", exception);
+                    continue;
+                }
+            }
+
+            collect(preferences, changed);
+        }
+
+        for (Preferences cached : cache.values()) {
+            // Written once the stored toggles have been merged, otherwise they would be overwritten
+            if (cached.loaded) {
+                collect(cached, changed);
+            }
+        }
+
+        try {
+            backend.save(changed);
+        } catch (IOException | RuntimeException exception) {
+            plugin.getLogger().log(Level.SEVERE, "Could not save player toggles", exception);
+
+            for (Preferences failed : changed) {
+                evicted.add(failed);
+            }
+        }
+    }
+
+    private void collect(Preferences preferences, List<Preferences> changed) {
+        if (!preferences.dirty) {
+            return;
+        }
+
+        preferences.dirty = false;
+
+        Preferences snapshot = new Preferences(preferences.uuid, preferences.name, preferences.disabled);
+        snapshot.dirty = true;
+
+        changed.add(snapshot);
+    }
+}
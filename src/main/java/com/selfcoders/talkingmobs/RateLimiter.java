@@ -0,0 +1,275 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.EntityType;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Token bucket rate limits for mob messages per player, per event type and for the whole server
+ *
+ * A message is only sent if all buckets have a token left. Depending on the policy, messages exceeding the limits are
+ * either dropped or counted per player and mob type and summarized (e.g. "5 more chicken messages have been hidden")
+ * once the player has a token again. The buckets are updated using compare-and-set and the players are kept in a
+ * concurrent map, so the worker threads checking the limits never wait for each other. Checking the limits does not
+ * allocate (except for the state of a player on its first message).
+ */
+class RateLimiter {
+    private static final EntityType[] ENTITY_TYPES = EntityType.values();
+
+    private final Map<TrackedPlayer, PlayerState> players = new ConcurrentHashMap<>();
+    private volatile Limits limits = new Limits();
+
+    /**
+     * What to do with messages exceeding the rate limits
+     */
+    enum Policy {
+        /**
+         * Drop the message
+         */
+        DROP,
+        /**
+         * Drop the message, but send a summary containing the number of dropped messages later
+         */
+        COALESCE
+    }
+
+    /**
+     * The configured limits (replaced at once by {@link #configure(ConfigurationSection)})
+     */
+    private static class Limits {
+        private final TokenBucket[] eventTypes = new TokenBucket[Message.EventType.values().length];
+        private TokenBucket global;
+        private double playerRate;
+        private double playerBurst;
+        private boolean coalesce;
+        private String summaryFormat;
+    }
+
+    /**
+     * A bucket refilled with rate tokens per second up to the burst size
+     *
+     * Instead of the number of tokens, the bucket stores the time at which it would be full again (the "theoretical
+     * arrival time" of the generic cell rate algorithm), so taking a token is a single compare-and-set of a long.
+     */
+    private static class TokenBucket {
+        private final long interval;
+        private final long capacity;
+        private final AtomicLong fullAt;
+
+        private TokenBucket(double rate, double burst, long now) {
+            this.interval = Math.max(1, (long) (1_000_000_000D / rate));
+            this.capacity = (long) (Math.max(1, burst) * interval);
+            this.fullAt = new AtomicLong(now);
+        }
+
+        private boolean tryTake(long now) {
+            while (true) {
+                long current = fullAt.get();
+                long next = Math.max(current, now) + interval;
+
+                if (next - now > capacity) {
+                    return false;
+                }
+
+                if (fullAt.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+
+        private void giveBack() {
+            fullAt.addAndGet(-interval);
+        }
+    }
+
+    /**
+     * The bucket and the dropped messages of a single player
+     */
+    private static class PlayerState {
+        // Null if there is no limit per player (the state only counts the dropped messages)
+        private final TokenBucket bucket;
+        private final AtomicIntegerArray dropped = new AtomicIntegerArray(ENTITY_TYPES.length);
+        private volatile boolean pending;
+
+        private PlayerState(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    /**
+     * Apply the rate limits configured in the given section (rate-limit section of config.yml, must be called on the
+     * main thread)
+     *
+     * @param config The configuration section (might be null to disable all limits)
+     * @return The configured policy or null if the configured policy is unknown
+     */
+    Policy configure(ConfigurationSection config) {
+        long now = System.nanoTime();
+        Limits newLimits = new Limits();
+        Policy policy = Policy.DROP;
+
+        if (config != null) {
+            newLimits.global = createBucket(config.getConfigurationSection("global"), now);
+
+            for (Message.EventType eventType : Message.EventType.values()) {
+                newLimits.eventTypes[eventType.ordinal()] = createBucket(config.getConfigurationSection("event"), now);
+            }
+
+            ConfigurationSection playerConfig = config.getConfigurationSection("player");
+            if (playerConfig != null) {
+                newLimits.playerRate = playerConfig.getDouble("rate");
+                newLimits.playerBurst = playerConfig.getDouble("burst");
+            }
+
+            newLimits.summaryFormat = ChatColor.translateAlternateColorCodes('&', config.getString("summary-format", "&7%count% more %mobname% messages have been hidden"));
+
+            try {
+                policy = Policy.valueOf(config.getString("policy", "drop").toUpperCase());
+            } catch (IllegalArgumentException exception) {
+                policy = null;
+            }
+
+            newLimits.coalesce = policy == Policy.COALESCE;
+        }
+
+        limits = newLimits;
+        players.clear();
+
+        return policy;
+    }
+
+    private static TokenBucket createBucket(ConfigurationSection config, long now) {
+        if (config == null || config.getDouble("rate") <= 0) {
+            return null;
+        }
+
+        return new TokenBucket(config.getDouble("rate"), config.getDouble("burst"), now);
+    }
+
+    /**
+     * Take a token from all buckets relevant for the message (may be called from any thread)
+     *
+     * @param player     The player which should receive the message
+     * @param eventType  The event type of the message
+     * @param entityType The type of the mob sending the message
+     * @return True if the message may be sent, false if it exceeds the limits
+     */
+    boolean tryAcquire(TrackedPlayer player, Message.EventType eventType, EntityType entityType) {
+        long now = System.nanoTime();
+        Limits currentLimits = limits;
+
+        TokenBucket global = currentLimits.global;
+        TokenBucket eventTypeBucket = currentLimits.eventTypes[eventType.ordinal()];
+
+        // Nothing to track if no limit applies to the message (e.g. all rates are 0)
+        if (global == null && eventTypeBucket == null && currentLimits.playerRate <= 0) {
+            return true;
+        }
+
+        PlayerState playerState = currentLimits.playerRate > 0 ? getPlayerState(currentLimits, player, now) : null;
+        TokenBucket playerBucket = playerState == null ? null : playerState.bucket;
+
+        if (global == null || global.tryTake(now)) {
+            if (eventTypeBucket == null || eventTypeBucket.tryTake(now)) {
+                if (playerBucket == null || playerBucket.tryTake(now)) {
+                    return true;
+                }
+
+                // Return the tokens already taken, as the message is not sent
+                if (eventTypeBucket != null) {
+                    eventTypeBucket.giveBack();
+                }
+            }
+
+            if (global != null) {
+                global.giveBack();
+            }
+        }
+
+        if (currentLimits.coalesce) {
+            // The dropped messages are also counted per player if only the global or event type limits are set
+            if (playerState == null) {
+                playerState = getPlayerState(currentLimits, player, now);
+            }
+
+            playerState.dropped.incrementAndGet(entityType.ordinal());
+            playerState.pending = true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Pass a summary of the dropped messages to the consumer for all players which have a token left and forget the
+     * players which are not online anymore (called on the main thread)
+     *
+     * @param consumer The consumer receiving the player and the summary
+     */
+    void flushSummaries(BiConsumer<TrackedPlayer, String> consumer) {
+        long now = System.nanoTime();
+        String summaryFormat = limits.summaryFormat;
+        Iterator<Map.Entry<TrackedPlayer, PlayerState>> iterator = players.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<TrackedPlayer, PlayerState> entry = iterator.next();
+            PlayerState playerState = entry.getValue();
+
+            // A worker might have created the state again while the player left the server
+            if (!entry.getKey().getPlayer().isOnline()) {
+                iterator.remove();
+                continue;
+            }
+
+            if (!playerState.pending) {
+                continue;
+            }
+
+            playerState.pending = false;
+
+            for (int index = 0; index < ENTITY_TYPES.length; index++) {
+                if (playerState.dropped.get(index) == 0) {
+                    continue;
+                }
+
+                // Without a limit per player, the summaries are sent on the next flush
+                if (playerState.bucket != null && !playerState.bucket.tryTake(now)) {
+                    playerState.pending = true;
+                    break;
+                }
+
+                int count = playerState.dropped.getAndSet(index, 0);
+
+                consumer.accept(entry.getKey(), summaryFormat
+                        .replace("%count%", String.valueOf(count))
+                        .replace("%mobname%", MessageCatalog.getMobName(ENTITY_TYPES[index]))
+                        .replace("%player%", entry.getKey().getName()));
+            }
+        }
+    }
+
+    /**
+     * Forget the state of the player (e.g. once the player left the server)
+     *
+     * @param player The player
+     */
+    void remove(TrackedPlayer player) {
+        players.remove(player);
+    }
+
+    private PlayerState getPlayerState(Limits currentLimits, TrackedPlayer player, long now) {
+        PlayerState playerState = players.get(player);
+
+        if (playerState == null) {
+            playerState = players.computeIfAbsent(player, key -> new PlayerState(currentLimits.playerRate > 0 ? new TokenBucket(currentLimits.playerRate, currentLimits.playerBurst, now) : null));
+        }
+
+        return playerState;
+    }
+}
@@ -0,0 +1,124 @@
+package com.selfcoders.talkingmobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Preference storage using an embedded SQLite database (players.db)
+ *
+ * Each player is stored in a single row, so saving the toggles of a player only writes the rows of the changed players.
+ * The disabled event types are stored as a comma separated list of their names (e.g. "all,looking").
+ */
+class SQLitePreferenceBackend implements PreferenceBackend {
+    private final File file;
+    private Connection connection;
+
+    SQLitePreferenceBackend(TalkingMobs plugin) {
+        file = new File(plugin.getDataFolder(), "players.db");
+    }
+
+    @Override
+    public void open() throws IOException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+
+            if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Could not create directory " + file.getParentFile());
+            }
+
+            connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS players (uuid TEXT PRIMARY KEY NOT NULL, name TEXT NOT NULL, disabled TEXT NOT NULL)");
+            }
+        } catch (ClassNotFoundException exception) {
+            throw new IOException("SQLite driver not available", exception);
+        } catch (SQLException exception) {
+            throw new IOException("Could not open " + file, exception);
+        }
+    }
+
+    @Override
+    public PreferenceStore.Preferences load(UUID uuid, String name) throws IOException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT disabled FROM players WHERE uuid = ?")) {
+            statement.setString(1, uuid.toString());
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+
+                return new PreferenceStore.Preferences(uuid, name, PreferenceStore.decode(resultSet.getString(1)));
+            }
+        } catch (SQLException exception) {
+            throw new IOException("Could not load toggles of player " + name, exception);
+        }
+    }
+
+    @Override
+    public void save(Collection<PreferenceStore.Preferences> preferences) throws IOException {
+        if (preferences.isEmpty()) {
+            return;
+        }
+
+        try {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement statement = connection.prepareStatement("INSERT OR REPLACE INTO players (uuid, name, disabled) VALUES (?, ?, ?)")) {
+                for (PreferenceStore.Preferences playerPreferences : preferences) {
+                    statement.setString(1, playerPreferences.getUniqueId().toString());
+                    statement.setString(2, playerPreferences.getName());
+                    statement.setString(3, PreferenceStore.encode(playerPreferences.getDisabled()));
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+                connection.commit();
+            } catch (SQLException exception) {
+                connection.rollback();
+                throw exception;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException exception) {
+            throw new IOException("Could not save toggles", exception);
+        }
+    }
+
+    @Override
+    public int forEach(Consumer<PreferenceStore.Preferences> consumer) throws IOException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("SELECT uuid, name, disabled FROM players")) {
+            while (resultSet.next()) {
+                consumer.accept(new PreferenceStore.Preferences(UUID.fromString(resultSet.getString(1)), resultSet.getString(2), PreferenceStore.decode(resultSet.getString(3))));
+            }
+
+            return 0;
+        } catch (SQLException exception) {
+            throw new IOException("Could not load toggles", exception);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (connection == null) {
+            return;
+        }
+
+        try {
+            connection.close();
+        } catch (SQLException exception) {
+            throw new IOException("Could not close " + file, exception);
+        } finally {
+            connection = null;
+        }
+    }
+}
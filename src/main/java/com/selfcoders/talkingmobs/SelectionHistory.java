@@ -0,0 +1,125 @@
+package com.selfcoders.talkingmobs;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The recently picked messages per mob, player and event type, used to avoid repeating the same messages
+ *
+ * The indices of the last {@link #MAX_AVOID} picked messages are packed into a single long (16 bits per index, the
+ * most recent one in the lowest bits) stored in a {@link StripedCooldownTable}, so remembering a message does not
+ * allocate.
+ * Histories which have not been used for a while expire. The random numbers are taken from the
+ * {@link ThreadLocalRandom} of the calling thread, so picking a message may happen on any thread.
+ */
+class SelectionHistory {
+    /**
+     * The maximum number of recently picked messages which can be skipped
+     */
+    static final int MAX_AVOID = 4;
+
+    /**
+     * The maximum number of messages per entity type and event type which can be picked
+     */
+    static final int MAX_MESSAGES = 0xFFFF;
+
+    /**
+     * The player ID used for the history of broadcasts (0 is a valid entity ID)
+     */
+    static final int BROADCAST = -1;
+
+    private static final int BITS = 16;
+    private static final long TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    private final StripedCooldownTable table = new StripedCooldownTable();
+
+    /**
+     * Pick a random message of the entry which is not one of the recently picked messages and remember it
+     *
+     * @param entry    The messages to pick from
+     * @param mobId    The entity ID of the mob
+     * @param playerId The entity ID of the player receiving the message ({@link #BROADCAST} for broadcasts)
+     * @param avoid    The number of recently picked messages to skip (limited to the number of messages minus one)
+     * @return The index of the picked message
+     */
+    int select(MessageCatalog.Entry entry, int mobId, int playerId, int avoid) {
+        int count = entry.getMessages().length;
+
+        avoid = Math.min(avoid, count - 1);
+
+        if (avoid <= 0) {
+            return entry.select(0, ThreadLocalRandom.current());
+        }
+
+        long key = CooldownTable.key(mobId, playerId, entry.getEventType());
+        long now = System.currentTimeMillis();
+
+        // Concurrent picks for the same mob and player might miss each other, which only weakens the repeat avoidance
+        long history = table.get(key, now, TIMEOUT);
+        long excluded = 0;
+        int excludedCount = 0;
+
+        for (int slot = 0; slot < size(history) && excludedCount < avoid; slot++) {
+            int index = get(history, slot);
+
+            // The messages might have changed since the history has been recorded
+            if (index < count && !contains(excluded, excludedCount, index)) {
+                excluded |= (long) (index + 1) << (excludedCount * BITS);
+                excludedCount++;
+            }
+        }
+
+        int index = entry.select(excluded, ThreadLocalRandom.current());
+
+        // Shifting drops the oldest index (MAX_AVOID indices fill the whole long)
+        table.put(key, now, TIMEOUT, (history << BITS) | (index + 1));
+
+        return index;
+    }
+
+    /**
+     * Forget the histories of the given entities (as mob or player)
+     *
+     * @param entityIds The entity IDs
+     */
+    void remove(int[] entityIds) {
+        table.remove(entityIds);
+    }
+
+    /**
+     * Get the number of message indices packed into the value
+     *
+     * @param history The packed message indices
+     * @return The number of message indices
+     */
+    static int size(long history) {
+        int size = 0;
+
+        while (size < MAX_AVOID && get(history, size) >= 0) {
+            size++;
+        }
+
+        return size;
+    }
+
+    /**
+     * Get a message index packed into the value
+     *
+     * @param history The packed message indices
+     * @param slot    The slot (0 for the most recent message)
+     * @return The message index or -1 if the slot is empty
+     */
+    static int get(long history, int slot) {
+        return (int) ((history >>> (slot * BITS)) & 0xFFFF) - 1;
+    }
+
+    private static boolean contains(long history, int size, int index) {
+        for (int slot = 0; slot < size; slot++) {
+            if (get(history, slot) == index) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,272 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.event.entity.CreatureSpawnEvent;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Immutable snapshot of the settings of config.yml used by the event handlers and the message pipeline
+ *
+ * A new snapshot is built on enable and on each reload and replaces the previous one at once, so the event handlers
+ * never access the YAML configuration and always see a consistent set of values (even on the worker threads).
+ */
+final class Settings {
+    private final boolean[] events = new boolean[Message.EventType.values().length];
+    private final Set<CreatureSpawnEvent.SpawnReason> spawnReasons;
+    private final double maxDistance;
+    private final double maxLookingDistance;
+    private final long lookingCheckInterval;
+    private final long spamTimeout;
+    private final int avoidRepeats;
+    private final long dialogueTimeout;
+    private final double idleRadius;
+    private final long idleInterval;
+    private final int idleBudget;
+    private final long idleMinDelay;
+    private final long idleMaxDelay;
+    private final DeliveryChannel[] channels = new DeliveryChannel[Message.EventType.values().length];
+    private final String actionBarSeparator;
+    private final int titleFadeIn;
+    private final int titleStay;
+    private final int titleFadeOut;
+    private final long hologramDuration;
+    private final double hologramHeight;
+    private final int hologramPoolSize;
+
+    private Settings(ConfigurationSection config, Logger logger) {
+        for (Message.EventType eventType : Message.EventType.values()) {
+            events[eventType.ordinal()] = config.getBoolean("events." + eventType.getType());
+        }
+
+        // events.killed is used till version 1.3 and is now deprecated
+        if (config.getBoolean("events.killed")) {
+            events[Message.EventType.KILLED_PLAYER.ordinal()] = true;
+        }
+
+        spawnReasons = EnumSet.noneOf(CreatureSpawnEvent.SpawnReason.class);
+
+        for (String name : config.getStringList("events.spawned")) {
+            try {
+                spawnReasons.add(CreatureSpawnEvent.SpawnReason.valueOf(name));
+            } catch (IllegalArgumentException exception) {
+                logger.log(Level.WARNING, "Unknown spawn reason ''{0}'' in events.spawned", name);
+            }
+        }
+
+        events[Message.EventType.SPAWNED.ordinal()] = !spawnReasons.isEmpty();
+
+        maxDistance = config.getDouble("maxDistance");
+        maxLookingDistance = config.getDouble("max-looking-distance");
+        lookingCheckInterval = Math.max(1, config.getLong("looking-check-interval"));
+        spamTimeout = config.getLong("spam-timeout");
+        avoidRepeats = Math.max(0, Math.min(SelectionHistory.MAX_AVOID, config.getInt("avoid-repeats")));
+        dialogueTimeout = Math.max(1, config.getLong("dialogue-timeout")) * 1000;
+
+        idleRadius = config.getDouble("idle.radius");
+        idleInterval = Math.max(1, config.getLong("idle.interval"));
+        idleBudget = Math.max(1, config.getInt("idle.budget"));
+        idleMinDelay = Math.max(0, config.getLong("idle.min-delay")) * 1000;
+        idleMaxDelay = Math.max(idleMinDelay, config.getLong("idle.max-delay") * 1000);
+
+        DeliveryChannel defaultChannel = getChannel(config, "default", DeliveryChannel.CHAT, logger);
+
+        for (Message.EventType eventType : Message.EventType.values()) {
+            channels[eventType.ordinal()] = getChannel(config, eventType.getType(), defaultChannel, logger);
+        }
+
+        actionBarSeparator = ChatColor.translateAlternateColorCodes('&', config.getString("delivery.action-bar-separator", " &7| &r"));
+        titleFadeIn = Math.max(0, config.getInt("delivery.title.fade-in"));
+        titleStay = Math.max(1, config.getInt("delivery.title.stay"));
+        titleFadeOut = Math.max(0, config.getInt("delivery.title.fade-out"));
+        hologramDuration = Math.max(1, config.getLong("delivery.hologram.duration"));
+        hologramHeight = config.getDouble("delivery.hologram.height");
+        hologramPoolSize = Math.max(0, config.getInt("delivery.hologram.pool-size"));
+    }
+
+    private static DeliveryChannel getChannel(ConfigurationSection config, String type, DeliveryChannel defaultChannel, Logger logger) {
+        String name = config.getString("delivery.channels." + type);
+
+        if (name == null) {
+            return defaultChannel;
+        }
+
+        DeliveryChannel channel = DeliveryChannel.fromString(name);
+
+        if (channel == null) {
+            logger.log(Level.WARNING, "Unknown delivery channel ''{0}'' in delivery.channels.{1}, using {2}", new Object[]{name, type, defaultChannel.getType()});
+            return defaultChannel;
+        }
+
+        return channel;
+    }
+
+    /**
+     * Build the settings from the configuration
+     *
+     * @param config The configuration (config.yml)
+     * @param logger The logger used to report invalid values
+     * @return The settings
+     */
+    static Settings load(ConfigurationSection config, Logger logger) {
+        return new Settings(config, logger);
+    }
+
+    /**
+     * Check whether the event type is enabled in the configuration
+     *
+     * @param eventType The event type
+     * @return True if the event type is enabled (for the spawned event: if any spawn reason is enabled)
+     */
+    boolean isEnabled(Message.EventType eventType) {
+        return events[eventType.ordinal()];
+    }
+
+    /**
+     * Check whether mobs spawned for the given reason should send a message
+     *
+     * @param spawnReason The spawn reason
+     * @return True if the spawn reason is listed in events.spawned
+     */
+    boolean isEnabled(CreatureSpawnEvent.SpawnReason spawnReason) {
+        return spawnReasons.contains(spawnReason);
+    }
+
+    /**
+     * @return The maximum distance between mob and player to receive messages (0 or less for no limit)
+     */
+    double getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * @return The maximum distance between mob and player for the "looking" event
+     */
+    double getMaxLookingDistance() {
+        return maxLookingDistance;
+    }
+
+    /**
+     * @return The interval in ticks between the checks for the "looking" event
+     */
+    long getLookingCheckInterval() {
+        return lookingCheckInterval;
+    }
+
+    /**
+     * @return The time in milliseconds before a mob may send another message of the same event type to a player
+     */
+    long getSpamTimeout() {
+        return spamTimeout;
+    }
+
+    /**
+     * @return The number of recently picked messages which are not picked again for the same mob and player
+     */
+    int getAvoidRepeats() {
+        return avoidRepeats;
+    }
+
+    /**
+     * @return The time in milliseconds after which a dialogue between a mob and a player starts again with the first step
+     */
+    long getDialogueTimeout() {
+        return dialogueTimeout;
+    }
+
+    /**
+     * @return The maximum distance between mob and player for the mob to be checked for the "idle" event
+     */
+    double getIdleRadius() {
+        return idleRadius;
+    }
+
+    /**
+     * @return The number of ticks in which all players receiving "idle" messages are visited
+     */
+    long getIdleInterval() {
+        return idleInterval;
+    }
+
+    /**
+     * @return The maximum number of mobs checked for the "idle" event per tick
+     */
+    int getIdleBudget() {
+        return idleBudget;
+    }
+
+    /**
+     * @return The minimum time in milliseconds between two "idle" messages of the same mob
+     */
+    long getIdleMinDelay() {
+        return idleMinDelay;
+    }
+
+    /**
+     * @return The maximum time in milliseconds between two "idle" messages of the same mob (at least the minimum)
+     */
+    long getIdleMaxDelay() {
+        return idleMaxDelay;
+    }
+
+    /**
+     * @param eventType The event type
+     * @return The channel used to show the messages of the event type
+     */
+    DeliveryChannel getChannel(Message.EventType eventType) {
+        return channels[eventType.ordinal()];
+    }
+
+    /**
+     * @return The text between the messages shown in the action bar of a player in the same tick
+     */
+    String getActionBarSeparator() {
+        return actionBarSeparator;
+    }
+
+    /**
+     * @return The number of ticks to fade in titles
+     */
+    int getTitleFadeIn() {
+        return titleFadeIn;
+    }
+
+    /**
+     * @return The number of ticks to show titles
+     */
+    int getTitleStay() {
+        return titleStay;
+    }
+
+    /**
+     * @return The number of ticks to fade out titles
+     */
+    int getTitleFadeOut() {
+        return titleFadeOut;
+    }
+
+    /**
+     * @return The number of ticks to show holograms
+     */
+    long getHologramDuration() {
+        return hologramDuration;
+    }
+
+    /**
+     * @return The distance between the eyes of the mob and its hologram
+     */
+    double getHologramHeight() {
+        return hologramHeight;
+    }
+
+    /**
+     * @return The maximum number of hidden hologram armor stands kept for later messages
+     */
+    int getHologramPoolSize() {
+        return hologramPoolSize;
+    }
+}
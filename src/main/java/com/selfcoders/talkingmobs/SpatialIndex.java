@@ -0,0 +1,148 @@
+package com.selfcoders.talkingmobs;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Index of the tracked players by world and region (cells of 4x4 chunks)
+ *
+ * The index is updated on the main thread by the {@link PlayerTracker} whenever the position snapshot of a player moves
+ * into another cell (which also covers teleports and world changes). It can be read from any thread, so broadcasts
+ * only visit the players in the cells within the maximum distance of the mob instead of all online players.
+ */
+class SpatialIndex {
+    /**
+     * The width and depth of a cell in blocks
+     */
+    static final int CELL_SIZE = 64;
+
+    private final Map<UUID, Map<Long, Set<TrackedPlayer>>> worlds = new ConcurrentHashMap<>();
+    // Only accessed on the main thread
+    private final Map<TrackedPlayer, Cell> cells = new HashMap<>();
+
+    /**
+     * The cell a player is currently indexed in
+     */
+    private static final class Cell {
+        private final UUID worldId;
+        private final long key;
+
+        private Cell(UUID worldId, long key) {
+            this.worldId = worldId;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Move the player into the cell of its current position snapshot (must be called on the main thread)
+     *
+     * @param player The player
+     */
+    void update(TrackedPlayer player) {
+        TrackedPlayer.Position position = player.getPosition();
+
+        if (position == null || position.getWorldId() == null) {
+            remove(player);
+            return;
+        }
+
+        long key = key(cell(position.getX()), cell(position.getZ()));
+        Cell current = cells.get(player);
+
+        if (current != null && current.key == key && current.worldId.equals(position.getWorldId())) {
+            return;
+        }
+
+        remove(player);
+
+        worlds.computeIfAbsent(position.getWorldId(), worldId -> new ConcurrentHashMap<>()).computeIfAbsent(key, cellKey -> ConcurrentHashMap.newKeySet()).add(player);
+        cells.put(player, new Cell(position.getWorldId(), key));
+    }
+
+    /**
+     * Remove the player from the index (must be called on the main thread)
+     *
+     * @param player The player
+     */
+    void remove(TrackedPlayer player) {
+        Cell cell = cells.remove(player);
+
+        if (cell == null) {
+            return;
+        }
+
+        Map<Long, Set<TrackedPlayer>> world = worlds.get(cell.worldId);
+
+        if (world == null) {
+            return;
+        }
+
+        Set<TrackedPlayer> players = world.get(cell.key);
+
+        if (players != null && players.remove(player) && players.isEmpty()) {
+            world.remove(cell.key);
+        }
+    }
+
+    /**
+     * Pass all players in the cells overlapping the square around the location to the consumer
+     *
+     * The consumer may receive players slightly outside of the distance (the cells are not clipped), so it still has to
+     * check the exact distance.
+     *
+     * @param worldId  The UUID of the world
+     * @param x        The x coordinate of the center
+     * @param z        The z coordinate of the center
+     * @param distance The maximum distance from the center
+     * @param consumer The consumer receiving the players
+     */
+    void forEachNearby(UUID worldId, double x, double z, double distance, Consumer<TrackedPlayer> consumer) {
+        Map<Long, Set<TrackedPlayer>> world = worldId == null ? null : worlds.get(worldId);
+
+        if (world == null) {
+            return;
+        }
+
+        int minX = cell(x - distance);
+        int maxX = cell(x + distance);
+        int minZ = cell(z - distance);
+        int maxZ = cell(z + distance);
+
+        // Iterate the occupied cells if there are less of them than cells within the distance
+        if ((long) (maxX - minX + 1) * (maxZ - minZ + 1) > world.size()) {
+            for (Map.Entry<Long, Set<TrackedPlayer>> entry : world.entrySet()) {
+                long key = entry.getKey();
+                int cellX = (int) (key >> 32);
+                int cellZ = (int) key;
+
+                if (cellX >= minX && cellX <= maxX && cellZ >= minZ && cellZ <= maxZ) {
+                    entry.getValue().forEach(consumer);
+                }
+            }
+
+            return;
+        }
+
+        for (int cellX = minX; cellX <= maxX; cellX++) {
+            for (int cellZ = minZ; cellZ <= maxZ; cellZ++) {
+                Set<TrackedPlayer> players = world.get(key(cellX, cellZ));
+
+                if (players != null) {
+                    players.forEach(consumer);
+                }
+            }
+        }
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    private static long key(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+}
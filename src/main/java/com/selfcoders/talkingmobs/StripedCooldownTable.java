@@ -0,0 +1,97 @@
+package com.selfcoders.talkingmobs;
+
+/**
+ * Thread-safe {@link CooldownTable} split into independently locked stripes
+ *
+ * Each key is assigned to one of the stripes by its hash, so threads checking the cooldowns of different mobs and
+ * players rarely wait for each other. Only removing entities and counting the entries have to visit all stripes.
+ */
+class StripedCooldownTable {
+    private final CooldownTable[] stripes;
+    private final int mask;
+
+    /**
+     * Create a table with a power of two number of stripes of at least four times the available processors
+     */
+    StripedCooldownTable() {
+        this(Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4) - 1) << 1);
+    }
+
+    /**
+     * Create a table with the given number of stripes
+     *
+     * @param stripeCount The number of stripes (must be a power of two)
+     */
+    StripedCooldownTable(int stripeCount) {
+        stripes = new CooldownTable[stripeCount];
+        mask = stripeCount - 1;
+
+        for (int index = 0; index < stripeCount; index++) {
+            stripes[index] = new CooldownTable();
+        }
+    }
+
+    private CooldownTable stripe(long key) {
+        // Use other bits than the slot index within the stripe
+        return stripes[(int) ((key * 0x9e3779b97f4a7c15L) >>> 40) & mask];
+    }
+
+    /**
+     * @see CooldownTable#touch(long, long, long)
+     */
+    boolean touch(long key, long now, long timeout) {
+        CooldownTable stripe = stripe(key);
+
+        synchronized (stripe) {
+            return stripe.touch(key, now, timeout);
+        }
+    }
+
+    /**
+     * @see CooldownTable#get(long, long, long)
+     */
+    long get(long key, long now, long timeout) {
+        CooldownTable stripe = stripe(key);
+
+        synchronized (stripe) {
+            return stripe.get(key, now, timeout);
+        }
+    }
+
+    /**
+     * @see CooldownTable#put(long, long, long, long)
+     */
+    void put(long key, long now, long timeout, long value) {
+        CooldownTable stripe = stripe(key);
+
+        synchronized (stripe) {
+            stripe.put(key, now, timeout, value);
+        }
+    }
+
+    /**
+     * @see CooldownTable#remove(int[])
+     */
+    void remove(int[] entityIds) {
+        for (CooldownTable stripe : stripes) {
+            synchronized (stripe) {
+                stripe.remove(entityIds);
+            }
+        }
+    }
+
+    /**
+     * @return The number of entries currently stored in all stripes
+     */
+    int size() {
+        int size = 0;
+
+        for (CooldownTable stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+
+        return size;
+    }
+}
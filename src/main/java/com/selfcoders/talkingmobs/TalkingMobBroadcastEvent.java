@@ -0,0 +1,105 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+import java.util.Map;
+
+/**
+ * Called on the main thread once before a mob message sent to all players is delivered, containing all of its recipients
+ *
+ * The messages might differ per player (e.g. if they contain the name of the player or the player uses another
+ * language). Listeners may change the messages, remove recipients or cancel the whole broadcast. Afterwards, a
+ * {@link TalkingMobMessageEvent} is called for each remaining recipient. The event is only created if there is at
+ * least one listener.
+ */
+public class TalkingMobBroadcastEvent extends Event implements Cancellable {
+    private static final HandlerList handlers = new HandlerList();
+
+    private final Entity mob;
+    private final EntityType mobType;
+    private final Message.EventType eventType;
+    private final Map<Player, String> messages;
+    private boolean cancelled;
+
+    /**
+     * Constructor of the class
+     *
+     * @param mob       The mob sending the message (null if the mob is not loaded anymore)
+     * @param mobType   The type of the mob
+     * @param eventType The event type which triggered the message
+     * @param messages  The formatted messages per recipient (modifiable)
+     */
+    TalkingMobBroadcastEvent(Entity mob, EntityType mobType, Message.EventType eventType, Map<Player, String> messages) {
+        this.mob = mob;
+        this.mobType = mobType;
+        this.eventType = eventType;
+        this.messages = messages;
+    }
+
+    /**
+     * @return The mob sending the message or null if the mob has been removed since the event occurred (e.g. the mob
+     * has been killed)
+     */
+    public Entity getMob() {
+        return mob;
+    }
+
+    /**
+     * @return The type of the mob sending the message
+     */
+    public EntityType getMobType() {
+        return mobType;
+    }
+
+    /**
+     * @return The event type which triggered the message
+     */
+    public Message.EventType getEventType() {
+        return eventType;
+    }
+
+    /**
+     * Get the recipients and their messages
+     *
+     * Removing an entry removes the recipient, replacing a value changes the message of the recipient. Null values are
+     * not allowed.
+     *
+     * @return The formatted messages per recipient
+     */
+    public Map<Player, String> getMessages() {
+        return messages;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    @Override
+    public HandlerList getHandlers() {
+        return handlers;
+    }
+
+    public static HandlerList getHandlerList() {
+        return handlers;
+    }
+
+    /**
+     * Check whether any plugin listens to this event (may be called from any thread)
+     *
+     * @return True if there is at least one registered listener
+     */
+    static boolean hasListeners() {
+        return handlers.getRegisteredListeners().length > 0;
+    }
+}
@@ -0,0 +1,144 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+/**
+ * Called on the main thread right before a mob message is sent to a player
+ *
+ * The message has already been picked, formatted and passed the toggles, spam timeouts and rate limits of the player.
+ * Listeners may change the message, the channel used to show it or cancel it (e.g. to show it in another way). The
+ * event is only created if there is at least one listener.
+ */
+public class TalkingMobMessageEvent extends Event implements Cancellable {
+    private static final HandlerList handlers = new HandlerList();
+
+    private final Player player;
+    private final Entity mob;
+    private final EntityType mobType;
+    private final Message.EventType eventType;
+    private String message;
+    private DeliveryChannel channel;
+    private boolean cancelled;
+
+    /**
+     * Constructor of the class
+     *
+     * @param player    The player receiving the message
+     * @param mob       The mob sending the message (null if the mob is not loaded anymore)
+     * @param mobType   The type of the mob
+     * @param eventType The event type which triggered the message
+     * @param message   The formatted message
+     * @param channel   The channel configured for the event type
+     */
+    TalkingMobMessageEvent(Player player, Entity mob, EntityType mobType, Message.EventType eventType, String message, DeliveryChannel channel) {
+        this.player = player;
+        this.mob = mob;
+        this.mobType = mobType;
+        this.eventType = eventType;
+        this.message = message;
+        this.channel = channel;
+    }
+
+    /**
+     * @return The player receiving the message
+     */
+    public Player getPlayer() {
+        return player;
+    }
+
+    /**
+     * @return The mob sending the message or null if the mob has been removed since the event occurred (e.g. the mob
+     * has been killed)
+     */
+    public Entity getMob() {
+        return mob;
+    }
+
+    /**
+     * @return The type of the mob sending the message
+     */
+    public EntityType getMobType() {
+        return mobType;
+    }
+
+    /**
+     * @return The event type which triggered the message
+     */
+    public Message.EventType getEventType() {
+        return eventType;
+    }
+
+    /**
+     * @return The formatted message (color codes are already translated)
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Replace the message sent to the player
+     *
+     * @param message The new message
+     */
+    public void setMessage(String message) {
+        if (message == null) {
+            throw new IllegalArgumentException("The message must not be null, cancel the event instead");
+        }
+
+        this.message = message;
+    }
+
+    /**
+     * @return The channel used to show the message
+     */
+    public DeliveryChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Change the channel used to show the message to the player (e.g. to show it in the action bar instead of the chat)
+     *
+     * @param channel The new channel (holograms are shown to all players near the mob, so they are not possible for the
+     *                message of a single player)
+     */
+    public void setChannel(DeliveryChannel channel) {
+        if (channel == null || channel == DeliveryChannel.HOLOGRAM) {
+            throw new IllegalArgumentException("The channel must be chat, action bar or title");
+        }
+
+        this.channel = channel;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    @Override
+    public HandlerList getHandlers() {
+        return handlers;
+    }
+
+    public static HandlerList getHandlerList() {
+        return handlers;
+    }
+
+    /**
+     * Check whether any plugin listens to this event (may be called from any thread)
+     *
+     * @return True if there is at least one registered listener
+     */
+    static boolean hasListeners() {
+        return handlers.getRegisteredListeners().length > 0;
+    }
+}
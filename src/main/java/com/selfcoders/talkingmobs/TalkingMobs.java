@@ -4,26 +4,77 @@ import org.apache.commons.lang.StringUtils;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.PluginManager;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
 
 public final class TalkingMobs extends JavaPlugin {
-    private final Message message = new Message(this);
+    private final PreferenceStore preferenceStore = new PreferenceStore(this);
+    private final PlayerTracker playerTracker = new PlayerTracker();
+    private final Audience audience = new Audience(preferenceStore, playerTracker);
+    private final Message message = new Message(this, preferenceStore, playerTracker, audience);
+    private final ConfigWatcher configWatcher = new ConfigWatcher(this);
+    private volatile FileConfiguration config;
+    private volatile Settings settings;
+    private LookingDetector lookingDetector;
+    private IdleChatter idleChatter;
+
+    public TalkingMobs() {
+    }
+
+    /**
+     * Constructor used to run the plugin outside of a server (e.g. in the benchmarks)
+     *
+     * @param loader      The plugin loader (created for a stand-in server)
+     * @param description The description of the plugin
+     * @param dataFolder  The data folder containing the configuration files
+     * @param file        The plugin jar file
+     */
+    TalkingMobs(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+        super(loader, description, dataFolder, file);
+    }
 
     @Override
     public void onEnable() {
         saveDefaultConfig();
+        reloadConfig();
+
+        preferenceStore.start();
+
+        for (Player player : getServer().getOnlinePlayers()) {
+            playerTracker.add(player);
+        }
+
+        audience.refresh();
+
+        long audienceRefreshInterval = Math.max(1, getConfig().getLong("audience-refresh-interval")) * 20;
+        getServer().getScheduler().runTaskTimer(this, audience::refresh, audienceRefreshInterval, audienceRefreshInterval);
+        getServer().getScheduler().runTaskTimer(this, playerTracker::updatePositions, 1, 1);
+        getServer().getScheduler().runTaskTimer(this, message::sendRateLimitSummaries, 20, 20);
+        getServer().getScheduler().runTaskTimer(this, message::flushBursts, 1, 1);
 
         PluginManager pluginManager = getServer().getPluginManager();
         pluginManager.registerEvents(new EventListener(message, this), this);
     }
 
+    @Override
+    public void onDisable() {
+        configWatcher.stop();
+        message.getPipeline().shutdown();
+        message.getMetrics().setMBeanRegistered(false, getLogger());
+        preferenceStore.shutdown();
+    }
+
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         if (!command.getName().equalsIgnoreCase("talkingmobs")) {
@@ -49,6 +100,21 @@ public final class TalkingMobs extends JavaPlugin {
                     sender.sendMessage(ChatColor.RED + "You do not have the required permissions for this command!");
                 }
                 return true;
+            case "migrate":
+                if (sender.hasPermission(Permission.MIGRATE.permission())) {
+                    sender.sendMessage("Migrating player toggles from players.yml to players.db...");
+                    preferenceStore.migrate(sender);
+                } else {
+                    sender.sendMessage(ChatColor.RED + "You do not have the required permissions for this command!");
+                }
+                return true;
+            case "stats":
+                if (sender.hasPermission(Permission.STATS.permission())) {
+                    printStats(sender);
+                } else {
+                    sender.sendMessage(ChatColor.RED + "You do not have the required permissions for this command!");
+                }
+                return true;
             case "toggle":
                 toggle(sender, Arrays.copyOfRange(args, 1, args.length));
                 return true;
@@ -64,20 +130,202 @@ public final class TalkingMobs extends JavaPlugin {
         return false;
     }
 
+    @Override
+    public FileConfiguration getConfig() {
+        if (config == null) {
+            reloadConfig();
+        }
+
+        return config;
+    }
+
     @Override
     public void reloadConfig() {
         super.reloadConfig();
 
+        config = super.getConfig();
+        settings = Settings.load(config, getLogger());
         message.reloadConfig();
+
+        applyConfig();
+    }
+
+    /**
+     * Replace the configuration with a configuration parsed off the main thread (called by the {@link ConfigWatcher})
+     *
+     * The settings and message formats are swapped in directly, the remaining parts are applied on the main thread.
+     *
+     * @param newConfig The new configuration
+     */
+    void reloadConfig(FileConfiguration newConfig) {
+        if (newConfig.saveToString().equals(config.saveToString())) {
+            return;
+        }
+
+        Settings newSettings = Settings.load(newConfig, getLogger());
+
+        message.reloadFormats(newConfig);
+        config = newConfig;
+        settings = newSettings;
+
+        getServer().getScheduler().runTask(this, () -> {
+            message.applyConfig(config);
+            applyConfig();
+        });
+
+        getLogger().info("Reloaded config.yml");
+    }
+
+    /**
+     * Apply the parts of the configuration which have to be applied on the main thread
+     */
+    private void applyConfig() {
+        if (isEnabled()) {
+            message.getPipeline().start();
+            message.getMetrics().setMBeanRegistered(config.getBoolean("metrics.jmx"), getLogger());
+            scheduleLookingDetector();
+            scheduleIdleChatter();
+            configWatcher.setEnabled(config.getBoolean("auto-reload"));
+        }
+    }
+
+    /**
+     * Register a placeholder which can be used in messages and message formats (e.g. %rank% for the name "rank")
+     *
+     * The resolver is only called for messages of mobs whose messages use the placeholder. Registering a name again
+     * replaces the previous resolver.
+     *
+     * @param name     The name of the placeholder without the % signs (lower case letters, digits, dashes, dots and
+     *                 underscores)
+     * @param resolver The resolver providing the value of the placeholder
+     * @throws IllegalArgumentException If the name is invalid or a placeholder of this plugin
+     */
+    public void registerPlaceholder(String name, PlaceholderResolver resolver) {
+        if (!MessageTemplate.isCustomPlaceholder(name)) {
+            throw new IllegalArgumentException("Invalid placeholder name: " + name);
+        }
+
+        message.registerPlaceholder(name, resolver);
+    }
+
+    /**
+     * Remove a placeholder registered using {@link #registerPlaceholder(String, PlaceholderResolver)} (e.g. once the
+     * plugin providing it is disabled)
+     *
+     * @param name The name of the placeholder without the % signs
+     */
+    public void unregisterPlaceholder(String name) {
+        message.unregisterPlaceholder(name);
+    }
+
+    /**
+     * Get the settings of the currently loaded configuration
+     *
+     * @return The settings (replaced by a new instance on reload)
+     */
+    Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Get the currently running task detecting mobs looking at players
+     *
+     * @return The task or null if the "looking" event is disabled
+     */
+    LookingDetector getLookingDetector() {
+        return lookingDetector;
+    }
+
+    /**
+     * Get the currently running task letting mobs near players talk
+     *
+     * @return The task or null if the "idle" event is disabled
+     */
+    IdleChatter getIdleChatter() {
+        return idleChatter;
+    }
+
+    /**
+     * Get the instance of the Message class
+     *
+     * @return The instance of the Message class
+     */
+    Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Get the store containing the per player toggles
+     *
+     * @return The preference store
+     */
+    PreferenceStore getPreferenceStore() {
+        return preferenceStore;
+    }
+
+    /**
+     * Get the players which may receive messages of each event type
+     *
+     * @return The audience sets
+     */
+    Audience getAudience() {
+        return audience;
+    }
+
+    /**
+     * Get the registry of the online players
+     *
+     * @return The player tracker
+     */
+    PlayerTracker getPlayerTracker() {
+        return playerTracker;
+    }
+
+    private void scheduleLookingDetector() {
+        if (lookingDetector != null) {
+            lookingDetector.cancel();
+            lookingDetector = null;
+        }
+
+        if (!settings.isEnabled(Message.EventType.LOOKING)) {
+            return;
+        }
+
+        long interval = settings.getLookingCheckInterval();
+
+        lookingDetector = new LookingDetector(message, this);
+        lookingDetector.runTaskTimer(this, interval, interval);
+    }
+
+    private void scheduleIdleChatter() {
+        if (idleChatter != null) {
+            idleChatter.cancel();
+            idleChatter = null;
+        }
+
+        if (!settings.isEnabled(Message.EventType.IDLE)) {
+            return;
+        }
+
+        idleChatter = new IdleChatter(message, this);
+        idleChatter.runTaskTimer(this, 1, 1);
     }
 
     private void printHelp(CommandSender sender) {
         sender.sendMessage(ChatColor.YELLOW + "----------" + ChatColor.WHITE + " Subcommands " + ChatColor.YELLOW + "----------");
 
+        if (sender.hasPermission(Permission.MIGRATE.permission())) {
+            sender.sendMessage(ChatColor.GOLD + "/talkingmobs migrate: " + ChatColor.WHITE + "Migrate the player toggles from players.yml to players.db");
+        }
+
         if (sender.hasPermission(Permission.RELOAD.permission())) {
             sender.sendMessage(ChatColor.GOLD + "/talkingmobs reload: " + ChatColor.WHITE + "Reload the configuration");
         }
 
+        if (sender.hasPermission(Permission.STATS.permission())) {
+            sender.sendMessage(ChatColor.GOLD + "/talkingmobs stats: " + ChatColor.WHITE + "Show the statistics of this plugin");
+        }
+
         if (sender instanceof Player) {
             sender.sendMessage(ChatColor.GOLD + "/talkingmobs toggle: " + ChatColor.WHITE + "Toggle messages sent by mob");
         }
@@ -85,6 +333,87 @@ public final class TalkingMobs extends JavaPlugin {
         sender.sendMessage(ChatColor.GOLD + "/talkingmobs version: " + ChatColor.WHITE + " Show the version of this plugin");
     }
 
+    private void printStats(CommandSender sender) {
+        Metrics metrics = message.getMetrics();
+
+        sender.sendMessage(ChatColor.YELLOW + "----------" + ChatColor.WHITE + " Statistics " + ChatColor.YELLOW + "----------");
+
+        sender.sendMessage(ChatColor.GOLD + "Event handlers:");
+
+        for (Metrics.Handler handler : Metrics.Handler.values()) {
+            Metrics.Histogram histogram = metrics.getHandler(handler);
+
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+
+            sender.sendMessage("  " + ChatColor.DARK_GREEN + handler.getName() + ChatColor.WHITE + ": " + histogram.getCount() + " calls, " + formatTimings(histogram));
+        }
+
+        sender.sendMessage(ChatColor.GOLD + "Messages:");
+
+        for (Message.EventType eventType : Message.EventType.values()) {
+            long received = metrics.getReceived(eventType);
+
+            if (received == 0) {
+                continue;
+            }
+
+            List<String> dropped = new ArrayList<>();
+
+            for (Metrics.DropReason reason : Metrics.DropReason.values()) {
+                long count = metrics.getDropped(eventType, reason);
+
+                if (count > 0) {
+                    dropped.add(reason.getName() + " " + count);
+                }
+            }
+
+            String line = "  " + ChatColor.DARK_GREEN + eventType.getType() + ChatColor.WHITE + ": " + received + " received, " + metrics.getRendered(eventType) + " rendered, " + metrics.getSent(eventType) + " sent";
+
+            if (!dropped.isEmpty()) {
+                line += ", dropped (" + StringUtils.join(dropped, ", ") + ")";
+            }
+
+            sender.sendMessage(line);
+        }
+
+        sender.sendMessage(ChatColor.GOLD + "Timings:");
+        sender.sendMessage("  " + ChatColor.DARK_GREEN + "selection" + ChatColor.WHITE + ": " + formatTimings(metrics.getSelection()));
+        printEventTimings(sender, metrics::getSelection);
+        sender.sendMessage("  " + ChatColor.DARK_GREEN + "formatting" + ChatColor.WHITE + ": " + formatTimings(metrics.getFormatting()));
+        printEventTimings(sender, metrics::getFormatting);
+        sender.sendMessage("  " + ChatColor.DARK_GREEN + "delivery" + ChatColor.WHITE + ": " + formatTimings(metrics.getDelivery()));
+        printEventTimings(sender, metrics::getDelivery);
+
+        sender.sendMessage(ChatColor.GOLD + "Queue overflows: " + ChatColor.WHITE + metrics.getQueueOverflows());
+        sender.sendMessage(ChatColor.GOLD + "Spam timeout entries: " + ChatColor.WHITE + metrics.getCooldownEntries());
+        sender.sendMessage(ChatColor.GOLD + "Cached player toggles: " + ChatColor.WHITE + metrics.getCachedPreferences());
+    }
+
+    private void printEventTimings(CommandSender sender, Function<Message.EventType, Metrics.Histogram> histograms) {
+        for (Message.EventType eventType : Message.EventType.values()) {
+            Metrics.Histogram histogram = histograms.apply(eventType);
+
+            if (histogram.getCount() > 0) {
+                sender.sendMessage("    " + ChatColor.DARK_GREEN + eventType.getType() + ChatColor.WHITE + ": " + formatTimings(histogram));
+            }
+        }
+    }
+
+    private String formatTimings(Metrics.Histogram histogram) {
+        long count = histogram.getCount();
+
+        if (count == 0) {
+            return "no samples";
+        }
+
+        return String.format(Locale.ROOT, "avg %.3f ms, p50 < %.3f ms, p99 < %.3f ms",
+                histogram.getTotal() / (double) count / 1_000_000,
+                histogram.getPercentile(0.50) / 1_000_000D,
+                histogram.getPercentile(0.99) / 1_000_000D);
+    }
+
     private void toggle(CommandSender sender, String[] args) {
         if (!(sender instanceof Player)) {
             sender.sendMessage(ChatColor.RED + "This command can only be run by a player!");
@@ -0,0 +1,128 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * An online player together with a snapshot of its position which can be read from any thread
+ *
+ * The position is updated on the main thread by the {@link PlayerTracker} once per tick. The Bukkit player itself must
+ * only be used on the main thread.
+ */
+class TrackedPlayer {
+    private final Player player;
+    private final UUID uuid;
+    private final int entityId;
+    private final String name;
+    private volatile String locale;
+    private volatile Position position;
+
+    /**
+     * Immutable snapshot of the position of a player
+     */
+    static class Position {
+        private final UUID worldId;
+        private final double x;
+        private final double y;
+        private final double z;
+
+        Position(UUID worldId, double x, double y, double z) {
+            this.worldId = worldId;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        UUID getWorldId() {
+            return worldId;
+        }
+
+        double getX() {
+            return x;
+        }
+
+        double getY() {
+            return y;
+        }
+
+        double getZ() {
+            return z;
+        }
+    }
+
+    TrackedPlayer(Player player) {
+        this.player = player;
+        this.uuid = player.getUniqueId();
+        this.entityId = player.getEntityId();
+        this.name = player.getName();
+
+        setLocale(player.getLocale());
+    }
+
+    /**
+     * @return The Bukkit player (must only be used on the main thread)
+     */
+    Player getPlayer() {
+        return player;
+    }
+
+    UUID getUniqueId() {
+        return uuid;
+    }
+
+    int getEntityId() {
+        return entityId;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return The lower case client locale of the player (e.g. en_us)
+     */
+    String getLocale() {
+        return locale;
+    }
+
+    /**
+     * Set the client locale of the player (e.g. once the player changed the language)
+     *
+     * @param locale The locale reported by the client
+     */
+    void setLocale(String locale) {
+        this.locale = locale == null ? "" : locale.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return The position of the player at the last update or null if it has not been updated yet
+     */
+    Position getPosition() {
+        return position;
+    }
+
+    /**
+     * Update the position snapshot if the player moved (must be called on the main thread)
+     *
+     * @param buffer A location instance which is reused for reading the location of the player
+     * @return True if the position changed, false otherwise
+     */
+    boolean updatePosition(Location buffer) {
+        player.getLocation(buffer);
+
+        World world = buffer.getWorld();
+        Position current = position;
+
+        if (current != null && current.x == buffer.getX() && current.y == buffer.getY() && current.z == buffer.getZ() && world != null && current.worldId.equals(world.getUID())) {
+            return false;
+        }
+
+        position = new Position(world == null ? null : world.getUID(), buffer.getX(), buffer.getY(), buffer.getZ());
+
+        return true;
+    }
+}
@@ -0,0 +1,156 @@
+package com.selfcoders.talkingmobs;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Preference storage using players.yml
+ *
+ * The whole file is rewritten on each save. Toggles stored by the player name (used till version 1.4) are migrated to
+ * the UUID once the player joins (or by {@link #forEach(Consumer)} for players which did not join since the update).
+ */
+class YamlPreferenceBackend implements PreferenceBackend {
+    private final TalkingMobs plugin;
+    private Config playersConfig;
+    private boolean migrated;
+
+    YamlPreferenceBackend(TalkingMobs pluginInstance) {
+        plugin = pluginInstance;
+    }
+
+    @Override
+    public void open() {
+        playersConfig = new Config(plugin, "players.yml");
+    }
+
+    @Override
+    public PreferenceStore.Preferences load(UUID uuid, String name) {
+        ConfigurationSection section = playersConfig.getConfig().getConfigurationSection(uuid.toString());
+
+        if (section != null) {
+            return read(uuid, section.getString("name", name), section);
+        }
+
+        section = playersConfig.getConfig().getConfigurationSection(name);
+
+        if (section == null) {
+            return null;
+        }
+
+        PreferenceStore.Preferences preferences = read(uuid, name, section);
+
+        playersConfig.getConfig().set(name, null);
+        write(preferences);
+        migrated = true;
+
+        return preferences;
+    }
+
+    @Override
+    public void save(Collection<PreferenceStore.Preferences> preferences) {
+        if (preferences.isEmpty() && !migrated) {
+            return;
+        }
+
+        for (PreferenceStore.Preferences playerPreferences : preferences) {
+            write(playerPreferences);
+        }
+
+        playersConfig.save();
+        migrated = false;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public int forEach(Consumer<PreferenceStore.Preferences> consumer) {
+        FileConfiguration config = playersConfig.getConfig();
+        int skipped = 0;
+
+        for (String key : config.getKeys(false)) {
+            ConfigurationSection section = config.getConfigurationSection(key);
+
+            if (section == null) {
+                plugin.getLogger().log(Level.WARNING, "Skipping invalid entry ''{0}''", key);
+                skipped++;
+                continue;
+            }
+
+            UUID uuid;
+
+            try {
+                uuid = UUID.fromString(key);
+            } catch (IllegalArgumentException exception) {
+                uuid = null;
+            }
+
+            if (uuid != null) {
+                consumer.accept(read(uuid, section.getString("name", ""), section));
+                continue;
+            }
+
+            // Stored by player name and the player did not join since the update (resolving the name might look up the
+            // UUID at Mojang, which is fine as this is only called in the background)
+            OfflinePlayer player = plugin.getServer().getOfflinePlayer(key);
+
+            if (player == null || player.getUniqueId() == null) {
+                plugin.getLogger().log(Level.WARNING, "Skipping toggles of ''{0}'' stored by player name: Unknown player", key);
+                skipped++;
+                continue;
+            }
+
+            if (config.isConfigurationSection(player.getUniqueId().toString())) {
+                plugin.getLogger().log(Level.WARNING, "Skipping toggles of ''{0}'' stored by player name: Newer toggles are stored by UUID", key);
+                skipped++;
+                continue;
+            }
+
+            consumer.accept(read(player.getUniqueId(), key, section));
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public void close() {
+        if (migrated) {
+            playersConfig.save();
+            migrated = false;
+        }
+    }
+
+    private PreferenceStore.Preferences read(UUID uuid, String name, ConfigurationSection section) {
+        int disabled = 0;
+
+        if (!section.getBoolean("enabled.all", true)) {
+            disabled |= PreferenceStore.ALL;
+        }
+
+        for (Message.EventType eventType : Message.EventType.values()) {
+            if (!section.getBoolean("enabled." + eventType.getType(), true)) {
+                disabled |= PreferenceStore.bit(eventType);
+            }
+        }
+
+        return new PreferenceStore.Preferences(uuid, name, disabled);
+    }
+
+    private void write(PreferenceStore.Preferences preferences) {
+        int disabled = preferences.getDisabled();
+        String path = preferences.getUniqueId().toString();
+
+        playersConfig.getConfig().set(path + ".name", preferences.getName());
+        playersConfig.getConfig().set(path + ".enabled.all", (disabled & PreferenceStore.ALL) == 0);
+
+        for (Message.EventType eventType : Message.EventType.values()) {
+            if (eventType.isToggleable()) {
+                playersConfig.getConfig().set(path + ".enabled." + eventType.getType(), (disabled & PreferenceStore.bit(eventType)) == 0);
+            }
+        }
+    }
+}